@@ -131,9 +131,10 @@ public class FrequentItemsetMining {
 			if (!line.trim().isEmpty()) {
 				final String[] splitLine = line.split("#SUP:");
 				final String[] items = splitLine[0].split(" ");
-				final Itemset itemset = new Itemset();
-				for (final String item : items)
-					itemset.add(Integer.parseInt(item.trim()));
+				final int[] itemArray = new int[items.length];
+				for (int i = 0; i < items.length; i++)
+					itemArray[i] = Integer.parseInt(items[i].trim());
+				final Itemset itemset = new Itemset(itemArray);
 				final int supp = Integer.parseInt(splitLine[1].trim());
 				itemsets.put(itemset, supp);
 			}
@@ -160,9 +161,10 @@ public class FrequentItemsetMining {
 			if (!line.trim().isEmpty()) {
 				final String[] splitLine = line.split("#SUP:");
 				final String[] items = splitLine[0].split(" ");
-				final Itemset itemset = new Itemset();
-				for (final String item : items)
-					itemset.add(Integer.parseInt(item.trim()));
+				final int[] itemArray = new int[items.length];
+				for (int i = 0; i < items.length; i++)
+					itemArray[i] = Integer.parseInt(items[i].trim());
+				final Itemset itemset = new Itemset(itemArray);
 				// final int supp = Integer.parseInt(splitLine[1].trim());
 				itemsets.add(itemset);
 			}
@@ -188,12 +190,16 @@ public class FrequentItemsetMining {
 			if (!line.trim().isEmpty()) {
 				String[] splitLine = line.split(" #SUP: ");
 				final String[] rule = splitLine[0].split(" ==> ");
-				final Itemset antecedent = new Itemset();
-				for (final String item : rule[0].split(" "))
-					antecedent.add(Integer.parseInt(item));
-				final Itemset consequent = new Itemset();
-				for (final String item : rule[1].split(" "))
-					consequent.add(Integer.parseInt(item));
+				final String[] antecedentItems = rule[0].split(" ");
+				final int[] antecedentArray = new int[antecedentItems.length];
+				for (int i = 0; i < antecedentItems.length; i++)
+					antecedentArray[i] = Integer.parseInt(antecedentItems[i]);
+				final Itemset antecedent = new Itemset(antecedentArray);
+				final String[] consequentItems = rule[1].split(" ");
+				final int[] consequentArray = new int[consequentItems.length];
+				for (int i = 0; i < consequentItems.length; i++)
+					consequentArray[i] = Integer.parseInt(consequentItems[i]);
+				final Itemset consequent = new Itemset(consequentArray);
 				splitLine = splitLine[1].split(" #CONF: ");
 				final int supp = Integer.parseInt(splitLine[0]);
 				splitLine = splitLine[1].split(" #LIFT: ");
@@ -223,9 +223,10 @@ public class StatisticalItemsetMining {
 		for (int i = 6; i < lines.length; i++) {
 			if (!lines[i].trim().isEmpty() && lines[i].charAt(0) != '#') {
 				final String[] splitLine = lines[i].trim().split(" ");
-				final Itemset itemset = new Itemset();
+				final int[] items = new int[splitLine.length - 2];
 				for (int j = 1; j < splitLine.length - 1; j++)
-					itemset.add(Integer.parseInt(splitLine[j]));
+					items[j - 1] = Integer.parseInt(splitLine[j]);
+				final Itemset itemset = new Itemset(items);
 				final double area = Double
 						.parseDouble(splitLine[splitLine.length - 1].replace("(", "").replace(")", ""));
 				itemsets.put(itemset, area);
@@ -244,9 +245,10 @@ public class StatisticalItemsetMining {
 		for (final String line : lines) {
 			if (!line.trim().isEmpty()) {
 				final String[] splitLine = line.split(" ");
-				final Itemset itemset = new Itemset();
+				final int[] items = new int[splitLine.length - 1];
 				for (int j = 1; j < splitLine.length; j++)
-					itemset.add(Integer.parseInt(splitLine[j].trim()));
+					items[j - 1] = Integer.parseInt(splitLine[j].trim());
+				final Itemset itemset = new Itemset(items);
 				final double usage = Double.parseDouble(splitLine[0].trim());
 				itemsets.put(itemset, usage);
 			}
@@ -264,9 +266,10 @@ public class StatisticalItemsetMining {
 		for (final String line : lines) {
 			if (!line.trim().isEmpty() && line.charAt(0) != '#') {
 				final String[] splitLine = line.split(" ");
-				final Itemset itemset = new Itemset();
+				final int[] items = new int[splitLine.length - 1];
 				for (int i = 1; i < splitLine.length; i++)
-					itemset.add(Integer.parseInt(splitLine[i].trim()));
+					items[i - 1] = Integer.parseInt(splitLine[i].trim());
+				final Itemset itemset = new Itemset(items);
 				final double prob = Double.parseDouble(splitLine[0].trim());
 				itemsets.put(itemset, prob);
 			}
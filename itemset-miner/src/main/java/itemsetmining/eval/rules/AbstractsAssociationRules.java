@@ -91,8 +91,8 @@ public class AbstractsAssociationRules {
 			throws IOException {
 
 		double oneLift = Double.POSITIVE_INFINITY;
-		final Itemset set = new Itemset(rule.getAntecedent());
-		set.addAll(rule.getConsequent());
+		final Itemset set = new Itemset(rule.getAntecedent(),
+				rule.getConsequent());
 
 		oneLift = recursiveOneLift(oneLift, set, new Itemset(), tree,
 				noTransactions);
@@ -119,10 +119,9 @@ public class AbstractsAssociationRules {
 
 		// Recursively generate more rules
 		for (final Integer element : antecedent) {
-			final Itemset newAntecedent = new Itemset(antecedent);
-			newAntecedent.remove(element);
-			final Itemset newConsequent = new Itemset(consequent);
-			newConsequent.add(element);
+			final Itemset newAntecedent = antecedent.withoutItem(element);
+			final Itemset newConsequent = new Itemset(consequent,
+					new Itemset(element));
 			final double lift = recursiveOneLift(oneLift, newAntecedent,
 					newConsequent, tree, noTransactions);
 			if (Math.abs(lift - 1) < Math.abs(oneLift - 1))
@@ -136,8 +135,7 @@ public class AbstractsAssociationRules {
 	private static double calculateLift(final Itemset antecedent,
 			final Itemset consequent, final ItemsetTree tree,
 			final double noTransactions) {
-		final Itemset union = new Itemset(antecedent);
-		union.addAll(consequent);
+		final Itemset union = new Itemset(antecedent, consequent);
 		final double lift = (double) (tree.getSupportOfItemset(union) / noTransactions)
 				/ ((tree.getSupportOfItemset(antecedent) / noTransactions) * (tree
 						.getSupportOfItemset(consequent) / noTransactions));
@@ -150,8 +148,7 @@ public class AbstractsAssociationRules {
 	private static double calculateConfidence(final Itemset antecedent,
 			final Itemset consequent, final ItemsetTree tree,
 			final double noTransactions) {
-		final Itemset union = new Itemset(antecedent);
-		union.addAll(consequent);
+		final Itemset union = new Itemset(antecedent, consequent);
 		final double lift = (double) (tree.getSupportOfItemset(union) / noTransactions)
 				/ (tree.getSupportOfItemset(antecedent) / noTransactions);
 		return lift;
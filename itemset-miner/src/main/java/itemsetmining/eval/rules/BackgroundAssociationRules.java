@@ -96,8 +96,8 @@ public class BackgroundAssociationRules {
 			final ItemsetTree tree) throws IOException {
 
 		double oneLift = Double.POSITIVE_INFINITY;
-		final Itemset set = new Itemset(rule.getAntecedent());
-		set.addAll(rule.getConsequent());
+		final Itemset set = new Itemset(rule.getAntecedent(),
+				rule.getConsequent());
 
 		oneLift = recursiveOneLift(oneLift, set, new Itemset(), tree);
 
@@ -122,10 +122,9 @@ public class BackgroundAssociationRules {
 
 		// Recursively generate more rules
 		for (final Integer element : antecedent) {
-			final Itemset newAntecedent = new Itemset(antecedent);
-			newAntecedent.remove(element);
-			final Itemset newConsequent = new Itemset(consequent);
-			newConsequent.add(element);
+			final Itemset newAntecedent = antecedent.withoutItem(element);
+			final Itemset newConsequent = new Itemset(consequent,
+					new Itemset(element));
 			final double lift = recursiveOneLift(oneLift, newAntecedent,
 					newConsequent, tree);
 			if (Math.abs(lift - 1) < Math.abs(oneLift - 1))
@@ -138,8 +137,7 @@ public class BackgroundAssociationRules {
 	/** Calculate the lift of an association rule */
 	private static double calculateLift(final Itemset antecedent,
 			final Itemset consequent, final ItemsetTree tree) {
-		final Itemset union = new Itemset(antecedent);
-		union.addAll(consequent);
+		final Itemset union = new Itemset(antecedent, consequent);
 		final double lift = (double) tree.getRelativeSupportOfItemset(union)
 				/ (tree.getRelativeSupportOfItemset(antecedent) * tree
 						.getRelativeSupportOfItemset(consequent));
@@ -150,8 +148,7 @@ public class BackgroundAssociationRules {
 	@SuppressWarnings("unused")
 	private static double calculateConfidence(final Itemset antecedent,
 			final Itemset consequent, final ItemsetTree tree) {
-		final Itemset union = new Itemset(antecedent);
-		union.addAll(consequent);
+		final Itemset union = new Itemset(antecedent, consequent);
 		final double lift = (double) tree.getRelativeSupportOfItemset(union)
 				/ tree.getRelativeSupportOfItemset(antecedent);
 		return lift;
@@ -2,95 +2,288 @@ package itemsetmining.itemset;
 
 import java.io.Serializable;
 import java.util.AbstractCollection;
-import java.util.BitSet;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
+/**
+ * A set of items stored either as a sorted int array (sparse layout) or as
+ * bitset words (dense layout), whichever is smaller for the given items.
+ * <p>
+ * Both layouts keep the number of items and a 64-bit fingerprint of the items
+ * up to date so that {@link #size()} and {@link #hashCode()} are O(1). All set
+ * algebra goes through the non-allocating {@link SetKernels}.
+ */
 public abstract class AbstractItemset extends AbstractCollection<Integer>
 		implements Serializable {
 	private static final long serialVersionUID = -6482941473374203517L;
 
-	/** the set of items **/
-	protected BitSet items;
+	/**
+	 * Use the dense layout if there is at least one item per this many bit
+	 * positions (i.e. the bitset is no bigger than the sorted array)
+	 */
+	private static final int DENSE_BITS_PER_ITEM = 32;
+
+	/** the bitset words of the items (dense layout), null if sparse **/
+	protected long[] words;
+
+	/** the sorted set of items (sparse layout), null if dense **/
+	protected int[] sortedItems;
+
+	/** the number of items **/
+	protected int noItems;
+
+	/** order-independent 64-bit fingerprint of the items **/
+	protected long fingerprint;
 
 	/**
-	 * Add given itemset to this itemset
+	 * Set the items of this itemset, choosing the smaller layout
 	 *
-	 * @param items
-	 *            an itemset that should be added to this itemset
+	 * @param sorted
+	 *            strictly increasing items (may be longer than len)
+	 * @param len
+	 *            the number of items to use
 	 */
-	public void add(final AbstractItemset set) {
-		final BitSet bs = set.items;
-		for (int i = bs.nextSetBit(0); i >= 0; i = bs.nextSetBit(i + 1))
-			this.items.set(i);
+	protected void setItems(final int[] sorted, final int len) {
+		noItems = len;
+		fingerprint = 0;
+		for (int i = 0; i < len; i++)
+			fingerprint += mix(sorted[i]);
+		if (len > 0 && preferDense(len, sorted[len - 1])) {
+			words = new long[(sorted[len - 1] >>> 6) + 1];
+			for (int i = 0; i < len; i++)
+				words[sorted[i] >>> 6] |= 1L << sorted[i];
+			sortedItems = null;
+		} else {
+			sortedItems = len == sorted.length ? sorted : Arrays.copyOf(
+					sorted, len);
+			words = null;
+		}
 	}
 
 	/**
-	 * Add an item to this itemset
+	 * Add an item, switching layout if the item makes the other one smaller
 	 *
-	 * @param item
-	 *            an item that should be added to this itemset
-	 * @return
+	 * @return true if the item was not already present
 	 */
-	@Override
-	public boolean add(final Integer item) {
-		this.items.set(item);
+	protected boolean addItem(final int item) {
+		if (words != null) {
+			if (SetKernels.get(words, item))
+				return false;
+			if (item >>> 6 >= words.length)
+				words = Arrays.copyOf(words, (item >>> 6) + 1);
+			words[item >>> 6] |= 1L << item;
+		} else {
+			final int pos = Arrays.binarySearch(sortedItems, 0, noItems, item);
+			if (pos >= 0)
+				return false;
+			final int ins = -(pos + 1);
+			if (noItems == sortedItems.length)
+				sortedItems = Arrays.copyOf(sortedItems,
+						Math.max(4, 2 * noItems));
+			System.arraycopy(sortedItems, ins, sortedItems, ins + 1, noItems
+					- ins);
+			sortedItems[ins] = item;
+		}
+		noItems++;
+		fingerprint += mix(item);
+		relayout();
 		return true;
 	}
 
+	/** Add all items of the given itemset (in place on dense layouts) */
+	protected void addItems(final AbstractItemset set) {
+		if (words != null && set.words != null) {
+			if (set.words.length > words.length)
+				words = Arrays.copyOf(words, set.words.length);
+			for (int w = 0; w < set.words.length; w++) {
+				// Account for the newly added items only
+				for (long added = set.words[w] & ~words[w]; added != 0; added &= added - 1) {
+					fingerprint += mix((w << 6)
+							+ Long.numberOfTrailingZeros(added));
+					noItems++;
+				}
+				words[w] |= set.words[w];
+			}
+			relayout();
+		} else {
+			for (final int item : set)
+				addItem(item);
+		}
+	}
+
 	/**
-	 * Remove an item from this itemset
+	 * Remove an item
 	 *
-	 * @param item
-	 *            an item that should be removed from this itemset
-	 * @return
+	 * @return true if the item was present
 	 */
-	public boolean remove(final Integer item) {
-		this.items.set(item, false);
+	protected boolean removeItem(final int item) {
+		if (words != null) {
+			if (!SetKernels.get(words, item))
+				return false;
+			words[item >>> 6] &= ~(1L << item);
+		} else {
+			final int pos = Arrays.binarySearch(sortedItems, 0, noItems, item);
+			if (pos < 0)
+				return false;
+			System.arraycopy(sortedItems, pos + 1, sortedItems, pos, noItems
+					- pos - 1);
+		}
+		noItems--;
+		fingerprint -= mix(item);
 		return true;
 	}
 
+	/** Switch to the other layout if it has become the smaller one */
+	private void relayout() {
+		if (words != null) {
+			if (!preferDense(noItems, 64 * words.length - 1)) {
+				final int[] sorted = new int[noItems];
+				int i = 0;
+				for (int item = SetKernels.nextSetBit(words, 0); item >= 0; item = SetKernels
+						.nextSetBit(words, item + 1))
+					sorted[i++] = item;
+				setItems(sorted, noItems);
+			}
+		} else if (noItems > 0
+				&& preferDense(noItems, sortedItems[noItems - 1])) {
+			setItems(sortedItems, noItems);
+		}
+	}
+
+	/** Sort and remove duplicates in place, returning the new length */
+	protected static int sortDistinct(final int[] a) {
+		Arrays.sort(a);
+		int len = 0;
+		for (int i = 0; i < a.length; i++) {
+			if (len == 0 || a[len - 1] != a[i])
+				a[len++] = a[i];
+		}
+		return len;
+	}
+
+	/** Whether the dense layout is no bigger than the sparse one */
+	protected static boolean preferDense(final int size, final int maxItem) {
+		return maxItem / DENSE_BITS_PER_ITEM < size;
+	}
+
+	/** Fingerprint contribution of a single item (murmur3 finalizer) */
+	protected static long mix(final int item) {
+		long h = item + 0x9E3779B97F4A7C15L;
+		h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+		h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+		return h ^ (h >>> 33);
+	}
+
 	/**
-	 * Add items to this itemset
-	 *
-	 * @param items
-	 *            a collection of items that should be added to this itemset
+	 * Check if item is contained in this itemset
 	 */
-	@Override
-	public boolean addAll(final Collection<? extends Integer> items) {
-		for (final int item : items)
-			this.items.set(item);
-		return true;
+	public boolean contains(final int item) {
+		if (words != null)
+			return SetKernels.get(words, item);
+		return Arrays.binarySearch(sortedItems, 0, noItems, item) >= 0;
 	}
 
 	/**
-	 * Add items to this itemset
+	 * Check if this itemset contains given itemset
 	 *
 	 * @param items
-	 *            an array of items that should be added to this itemset
 	 */
-	public void add(final int... items) {
-		for (final int item : items)
-			this.items.set(item);
+	public boolean contains(final AbstractItemset set) {
+		if (set.noItems > noItems)
+			return false;
+		if (set.words != null) {
+			if (words != null)
+				return SetKernels.isSubset(set.words, words);
+			return SetKernels.isSubset(set.words, sortedItems, noItems);
+		}
+		if (words != null)
+			return SetKernels.isSubset(set.sortedItems, set.noItems, words);
+		return SetKernels.isSubset(set.sortedItems, set.noItems, sortedItems,
+				noItems);
 	}
 
 	/**
-	 * Check if item is contained in this itemset
+	 * Get the items of this itemset in increasing order
 	 */
-	public boolean contains(final int item) {
-		return items.get(item);
+	public int[] getItems() {
+		if (words == null)
+			return Arrays.copyOf(sortedItems, noItems);
+		final int[] items = new int[noItems];
+		int i = 0;
+		for (int item = SetKernels.nextSetBit(words, 0); item >= 0; item = SetKernels
+				.nextSetBit(words, item + 1))
+			items[i++] = item;
+		return items;
 	}
 
 	/**
-	 * Check if this itemset contains given itemset
+	 * Copy the items of this itemset in increasing order into the given array
+	 * (which must be long enough to hold them)
+	 */
+	public void getItems(final int[] items) {
+		if (words == null) {
+			System.arraycopy(sortedItems, 0, items, 0, noItems);
+			return;
+		}
+		int i = 0;
+		for (int item = SetKernels.nextSetBit(words, 0); item >= 0; item = SetKernels
+				.nextSetBit(words, item + 1))
+			items[i++] = item;
+	}
+
+	/**
+	 * Get the bitmask of the positions of the items of this itemset
 	 *
-	 * @param items
+	 * @param positions
+	 *            one plus the position (less than 64) of each item, indexed by
+	 *            item (zero or beyond the end if the item has no position)
+	 * @return the bitmask or 0 if an item has no position
 	 */
-	public boolean contains(final AbstractItemset set) {
-		final BitSet setItems = set.items;
-		final BitSet copy = (BitSet) setItems.clone();
-		copy.and(items);
-		return copy.equals(setItems);
+	public long getMask(final int[] positions) {
+		long mask = 0;
+		if (words != null) {
+			for (int item = SetKernels.nextSetBit(words, 0); item >= 0; item = SetKernels
+					.nextSetBit(words, item + 1)) {
+				if (item >= positions.length || positions[item] == 0)
+					return 0;
+				mask |= 1L << (positions[item] - 1);
+			}
+		} else {
+			for (int i = 0; i < noItems; i++) {
+				final int item = sortedItems[i];
+				if (item >= positions.length || positions[item] == 0)
+					return 0;
+				mask |= 1L << (positions[item] - 1);
+			}
+		}
+		return mask;
+	}
+
+	/**
+	 * Count items of this itemset that are not set in the given bitset words
+	 */
+	public int countNotIn(final long[] bits) {
+		if (words != null)
+			return SetKernels.differenceCount(words, bits);
+		return noItems - SetKernels.intersectionCount(sortedItems, noItems, bits);
+	}
+
+	/**
+	 * Set the bits of the items of this itemset in the given bitset words
+	 * (ignoring items beyond their end)
+	 */
+	public void setBits(final long[] bits) {
+		if (words != null) {
+			final int common = Math.min(words.length, bits.length);
+			for (int w = 0; w < common; w++)
+				bits[w] |= words[w];
+		} else {
+			for (int i = 0; i < noItems; i++) {
+				if (sortedItems[i] >>> 6 < bits.length)
+					bits[sortedItems[i] >>> 6] |= 1L << sortedItems[i];
+			}
+		}
 	}
 
 	/**
@@ -99,10 +292,28 @@ public abstract class AbstractItemset extends AbstractCollection<Integer>
 	 * @param itemset
 	 */
 	public int countUnion(final AbstractItemset set) {
-		final BitSet setItems = set.items;
-		final BitSet copy = (BitSet) setItems.clone();
-		copy.or(items);
-		return copy.cardinality();
+		if (words != null && set.words != null)
+			return SetKernels.unionCount(words, set.words);
+		return noItems + set.noItems - countIntersection(set);
+	}
+
+	/**
+	 * Count items contained in both this itemset and given itemset
+	 *
+	 * @param itemset
+	 */
+	public int countIntersection(final AbstractItemset set) {
+		if (words != null) {
+			if (set.words != null)
+				return SetKernels.intersectionCount(words, set.words);
+			return SetKernels.intersectionCount(set.sortedItems, set.noItems,
+					words);
+		}
+		if (set.words != null)
+			return SetKernels.intersectionCount(sortedItems, noItems,
+					set.words);
+		return SetKernels.intersectionCount(sortedItems, noItems,
+				set.sortedItems, set.noItems);
 	}
 
 	/**
@@ -110,26 +321,45 @@ public abstract class AbstractItemset extends AbstractCollection<Integer>
 	 */
 	@Override
 	public int size() {
-		return items.cardinality();
+		return noItems;
 	}
 
 	@Override
 	public boolean isEmpty() {
-		return items.isEmpty();
+		return noItems == 0;
 	}
 
 	public boolean intersects(final AbstractItemset set) {
-		return items.intersects(set.items);
+		if (words != null) {
+			if (set.words != null)
+				return !SetKernels.disjoint(words, set.words);
+			return !SetKernels.disjoint(set.sortedItems, set.noItems, words);
+		}
+		if (set.words != null)
+			return !SetKernels.disjoint(sortedItems, noItems, set.words);
+		return !SetKernels.disjoint(sortedItems, noItems, set.sortedItems,
+				set.noItems);
+	}
+
+	/** Get the 64-bit fingerprint of the items in this itemset */
+	public long fingerprint() {
+		return fingerprint;
 	}
 
 	@Override
 	public String toString() {
-		return items.toString();
+		final StringBuilder sb = new StringBuilder("{");
+		for (final Iterator<Integer> it = iterator(); it.hasNext();) {
+			sb.append(it.next());
+			if (it.hasNext())
+				sb.append(", ");
+		}
+		return sb.append('}').toString();
 	}
 
 	@Override
 	public int hashCode() {
-		return items.hashCode();
+		return (int) (fingerprint ^ (fingerprint >>> 32));
 	}
 
 	@Override
@@ -139,12 +369,49 @@ public abstract class AbstractItemset extends AbstractCollection<Integer>
 		if (!(obj instanceof AbstractItemset))
 			return false;
 		final AbstractItemset other = (AbstractItemset) obj;
-		return items.equals(other.items);
+		if (noItems != other.noItems || fingerprint != other.fingerprint)
+			return false;
+		return contains(other);
 	}
 
 	@Override
 	public Iterator<Integer> iterator() {
-		return new BitSetIterator(items);
+		if (words != null) {
+			return new Iterator<Integer>() {
+				private int i = SetKernels.nextSetBit(words, 0);
+
+				@Override
+				public boolean hasNext() {
+					return i >= 0;
+				}
+
+				@Override
+				public Integer next() {
+					if (i < 0)
+						throw new NoSuchElementException();
+					final int item = i;
+					i = SetKernels.nextSetBit(words, i + 1);
+					return item;
+				}
+
+			};
+		}
+		return new Iterator<Integer>() {
+			private int i = 0;
+
+			@Override
+			public boolean hasNext() {
+				return i < noItems;
+			}
+
+			@Override
+			public Integer next() {
+				if (i >= noItems)
+					throw new NoSuchElementException();
+				return sortedItems[i++];
+			}
+
+		};
 	}
 
 }
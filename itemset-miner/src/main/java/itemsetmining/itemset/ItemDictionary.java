@@ -0,0 +1,118 @@
+package itemsetmining.itemset;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Multiset;
+
+/**
+ * Dictionary renumbering the items of a database to 0..n-1 in descending
+ * order of support (ties broken by ascending item ID). Itemsets over the
+ * renumbered items have small, dense bitsets with the frequent items in the
+ * low words, and the natural int order is the descending support order used
+ * by the {@link ItemsetTree}.
+ */
+public class ItemDictionary implements Serializable {
+	private static final long serialVersionUID = -2811371622420817370L;
+
+	/** Original item for each ID */
+	private final int[] items;
+
+	/** Support of each ID */
+	private final int[] supports;
+
+	/** ID for each original item */
+	private final HashMap<Integer, Integer> ids;
+
+	/**
+	 * Constructor
+	 *
+	 * @param singletons
+	 *            the support of each item in the database
+	 */
+	public ItemDictionary(final Multiset<Integer> singletons) {
+		items = singletons.elementSet().stream().sorted((item1, item2) -> {
+			final int compare = singletons.count(item2) - singletons.count(item1);
+			if (compare == 0)
+				return Integer.compare(item1, item2);
+			return compare;
+		}).mapToInt(i -> i).toArray();
+		supports = new int[items.length];
+		ids = new HashMap<>(2 * items.length);
+		for (int id = 0; id < items.length; id++) {
+			supports[id] = singletons.count(items[id]);
+			ids.put(items[id], id);
+		}
+	}
+
+	/** Number of items in the dictionary */
+	public int size() {
+		return items.length;
+	}
+
+	/** Get the ID of the given item */
+	public int encode(final int item) {
+		final Integer id = ids.get(item);
+		if (id == null)
+			throw new IllegalArgumentException("Item " + item
+					+ " is not in the dictionary.");
+		return id;
+	}
+
+	/** Get the item with the given ID */
+	public int decode(final int id) {
+		return items[id];
+	}
+
+	/** Get the support of the item with the given ID */
+	public int getSupport(final int id) {
+		return supports[id];
+	}
+
+	/** Parse a transaction line of space separated items into their IDs */
+	public int[] encode(final String[] items) {
+		final int[] encoded = new int[items.length];
+		for (int i = 0; i < items.length; i++)
+			encoded[i] = encode(Integer.parseInt(items[i]));
+		return encoded;
+	}
+
+	/** Get the itemset of IDs for the given itemset of items */
+	public Itemset encode(final AbstractItemset set) {
+		final int[] encoded = new int[set.size()];
+		int i = 0;
+		for (final int item : set)
+			encoded[i++] = encode(item);
+		return new Itemset(encoded);
+	}
+
+	/** Get the itemset of items for the given itemset of IDs */
+	public Itemset decode(final AbstractItemset set) {
+		final int[] decoded = new int[set.size()];
+		int i = 0;
+		for (final int id : set)
+			decoded[i++] = items[id];
+		return new Itemset(decoded);
+	}
+
+	/** Get the supports of all IDs as a multiset */
+	public Multiset<Integer> getSupports() {
+		final Multiset<Integer> singletons = HashMultiset.create();
+		for (int id = 0; id < supports.length; id++)
+			singletons.add(id, supports[id]);
+		return singletons;
+	}
+
+	/** Decode the itemsets in the given map, preserving iteration order */
+	public <V> LinkedHashMap<Itemset, V> decode(final Map<Itemset, V> itemsets) {
+		final LinkedHashMap<Itemset, V> decoded = new LinkedHashMap<>();
+		for (final Entry<Itemset, V> entry : itemsets.entrySet())
+			decoded.put(decode(entry.getKey()), entry.getValue());
+		return decoded;
+	}
+
+}
@@ -1,39 +1,98 @@
 package itemsetmining.itemset;
 
 import java.io.Serializable;
-import java.util.BitSet;
 import java.util.Collection;
 
+/**
+ * An immutable itemset. Its layout is chosen once on construction so the
+ * fingerprint (and hence hash code) is computed only once.
+ */
 public class Itemset extends AbstractItemset implements Serializable {
 	private static final long serialVersionUID = 4667217256957834826L;
 
+	/** ID assigned by the {@link ItemsetRegistry} (-1 if not interned) */
+	private int id = -1;
+
 	/**
 	 * Constructor
 	 */
 	public Itemset() {
-		this.items = new BitSet();
+		setItems(new int[0], 0);
 	}
 
 	/**
 	 * Constructor
-	 * 
+	 *
 	 * @param items
 	 *            a collection of items that should be added to the new itemset
 	 */
 	public Itemset(final Collection<Integer> items) {
-		this.items = new BitSet(items.size());
-		addAll(items);
+		final int[] sorted = new int[items.size()];
+		int i = 0;
+		for (final int item : items)
+			sorted[i++] = item;
+		setItems(sorted, sortDistinct(sorted));
 	}
 
 	/**
 	 * Constructor
-	 * 
+	 *
 	 * @param items
 	 *            an array of items that should be added to the new itemset
 	 */
 	public Itemset(final int... items) {
-		this.items = new BitSet(items.length);
-		add(items);
+		final int[] sorted = items.clone();
+		setItems(sorted, sortDistinct(sorted));
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param sets
+	 *            itemsets whose union should form the new itemset
+	 */
+	public Itemset(final AbstractItemset... sets) {
+		int len = 0;
+		for (final AbstractItemset set : sets)
+			len += set.size();
+		final int[] sorted = new int[len];
+		int i = 0;
+		for (final AbstractItemset set : sets) {
+			for (final int item : set)
+				sorted[i++] = item;
+		}
+		setItems(sorted, sortDistinct(sorted));
+	}
+
+	/**
+	 * Get the ID of this itemset, -1 if it has not been interned by the
+	 * {@link ItemsetRegistry}
+	 */
+	public int getId() {
+		return id;
+	}
+
+	/** Set the ID of this itemset (only called by the registry) */
+	void setId(final int id) {
+		this.id = id;
+	}
+
+	/**
+	 * Get a copy of this itemset without the given item
+	 *
+	 * @param item
+	 *            the item that should be removed from the copy
+	 */
+	public Itemset withoutItem(final int item) {
+		final int[] sorted = new int[noItems];
+		int len = 0;
+		for (final int i : this) {
+			if (i != item)
+				sorted[len++] = i;
+		}
+		final Itemset copy = new Itemset();
+		copy.setItems(sorted, len);
+		return copy;
 	}
 
 }
@@ -0,0 +1,244 @@
+package itemsetmining.itemset;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Immutable vector of itemset probabilities indexed by itemset ID, shared by
+ * all transactions (whose caches only record which itemsets they support).
+ * An M-step therefore just swaps in the next version of the vector. It also
+ * holds the singleton table, so that caches need not store singletons.
+ * <p>
+ * The version is bumped by each M-step so that transaction caches can lazily
+ * drop the itemsets that it assigned zero probability. The log costs of the
+ * itemsets are tabulated once per version as inference and cost calculation
+ * need them for every cached itemset of every transaction.
+ * <p>
+ * A candidate itemset is evaluated and added by overlaying its probability
+ * (see {@link #with}), which shares the vectors rather than copying them.
+ */
+public class ItemsetProbabilities implements Serializable {
+	private static final long serialVersionUID = 2304716522813905621L;
+
+	/** Probabilities indexed by itemset ID (zero beyond the end) */
+	private final double[] probs;
+
+	/** Costs -log(p) and -log(1 - p) indexed by itemset ID */
+	private final double[] coveringCosts;
+	private final double[] nonCoveringCosts;
+
+	/** Number of M-steps that led to these probabilities */
+	private final int version;
+
+	/** Interned singleton for each item (indexed by the renumbered item) */
+	private final Itemset[] singletons;
+
+	/** ID, probability and costs of an overlaid itemset (ID -1 if none) */
+	private final int overlayId;
+	private final double overlayProb;
+	private final double overlayCoveringCost;
+	private final double overlayNonCoveringCost;
+
+	/**
+	 * Constructor
+	 *
+	 * @param itemsets
+	 *            interned itemsets with their probabilities
+	 */
+	public ItemsetProbabilities(final Map<Itemset, Double> itemsets) {
+		int length = 0;
+		for (final Itemset set : itemsets.keySet())
+			length = Math.max(length, set.getId() + 1);
+		probs = new double[length];
+		int maxItem = -1;
+		for (final Entry<Itemset, Double> entry : itemsets.entrySet()) {
+			probs[entry.getKey().getId()] = entry.getValue();
+			if (entry.getKey().size() == 1)
+				maxItem = Math.max(maxItem, entry.getKey().iterator().next());
+		}
+		singletons = new Itemset[maxItem + 1];
+		for (final Itemset set : itemsets.keySet()) {
+			if (set.size() == 1)
+				singletons[set.iterator().next()] = set;
+		}
+		version = 0;
+		coveringCosts = new double[length];
+		nonCoveringCosts = new double[length];
+		setCosts(0, length);
+		overlayId = -1;
+		overlayProb = overlayCoveringCost = overlayNonCoveringCost = 0;
+	}
+
+	private ItemsetProbabilities(final double[] probs, final int version,
+			final Itemset[] singletons) {
+		this.probs = probs;
+		this.version = version;
+		this.singletons = singletons;
+		coveringCosts = new double[probs.length];
+		nonCoveringCosts = new double[probs.length];
+		setCosts(0, probs.length);
+		overlayId = -1;
+		overlayProb = overlayCoveringCost = overlayNonCoveringCost = 0;
+	}
+
+	private ItemsetProbabilities(final ItemsetProbabilities base,
+			final int overlayId, final double overlayProb) {
+		probs = base.probs;
+		version = base.version;
+		singletons = base.singletons;
+		coveringCosts = base.coveringCosts;
+		nonCoveringCosts = base.nonCoveringCosts;
+		this.overlayId = overlayId;
+		this.overlayProb = overlayProb;
+		overlayCoveringCost = -Math.log(overlayProb);
+		overlayNonCoveringCost = -Math.log(1 - overlayProb);
+	}
+
+	/** Tabulate the log costs of the given range of itemset IDs */
+	private void setCosts(final int from, final int to) {
+		for (int id = from; id < to; id++) {
+			coveringCosts[id] = -Math.log(probs[id]);
+			nonCoveringCosts[id] = -Math.log(1 - probs[id]);
+		}
+	}
+
+	/** Get the probability of the given (interned) itemset */
+	public double get(final Itemset set) {
+		return get(this, set.getId());
+	}
+
+	/**
+	 * Get the cost -log(p) of the given (interned) itemset being in a
+	 * covering (infinite if it has zero probability)
+	 */
+	public double getCoveringCost(final Itemset set) {
+		final int id = set.getId();
+		if (id >= 0 && id == overlayId)
+			return overlayCoveringCost;
+		return id >= 0 && id < probs.length ? coveringCosts[id]
+				: Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Get the cost -log(1 - p) of the given (interned) itemset being cached
+	 * but not in a covering
+	 */
+	public double getNonCoveringCost(final Itemset set) {
+		final int id = set.getId();
+		if (id >= 0 && id == overlayId)
+			return overlayNonCoveringCost;
+		return id >= 0 && id < probs.length ? nonCoveringCosts[id] : 0;
+	}
+
+	/** Get the interned singleton of the given item (null if unknown) */
+	public Itemset getSingleton(final int item) {
+		return item < singletons.length ? singletons[item] : null;
+	}
+
+	/** Get the version of these probabilities */
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * Get the next version with the given M-step probabilities (indexed by
+	 * itemset ID, the array is not copied)
+	 */
+	public ItemsetProbabilities next(final double[] newProbs) {
+		return new ItemsetProbabilities(newProbs, version + 1, singletons);
+	}
+
+	/**
+	 * Get these probabilities with that of the given (interned) itemset set,
+	 * overlaid without copying the vectors. The overlay keeps the version as
+	 * it is only used to evaluate and add a candidate.
+	 */
+	public ItemsetProbabilities with(final Itemset set, final double prob) {
+		if (overlayId < 0 || overlayId == set.getId())
+			return new ItemsetProbabilities(this, set.getId(), prob);
+		final double[] newProbs = Arrays.copyOf(probs, getLength());
+		newProbs[overlayId] = overlayProb;
+		return new ItemsetProbabilities(newProbs, version, singletons).with(
+				set, prob);
+	}
+
+	/**
+	 * Get the SQUAREM extrapolation of the two EM steps from these
+	 * probabilities to step1 and on to step2, as the next version of step2
+	 * (to be followed by a stabilizing EM step).
+	 *
+	 * @return the extrapolated probabilities or null if the extrapolation is
+	 *         degenerate or leaves (0, 1] for an itemset with non-zero step2
+	 *         probability
+	 */
+	public ItemsetProbabilities extrapolate(final ItemsetProbabilities step1,
+			final ItemsetProbabilities step2) {
+		final int length = Math.max(getLength(),
+				Math.max(step1.getLength(), step2.getLength()));
+
+		// Get step length alpha = -|r| / |v| (at least one full step)
+		double normR = 0, normV = 0;
+		for (int id = 0; id < length; id++) {
+			final double r = get(step1, id) - get(this, id);
+			final double v = get(step2, id) - 2 * get(step1, id)
+					+ get(this, id);
+			normR += r * r;
+			normV += v * v;
+		}
+		if (normV == 0)
+			return null;
+		final double alpha = Math.min(-Math.sqrt(normR / normV), -1);
+
+		// Extrapolate, keeping zero probability itemsets at zero
+		final double[] newProbs = new double[length];
+		for (int id = 0; id < length; id++) {
+			if (get(step2, id) == 0)
+				continue;
+			final double r = get(step1, id) - get(this, id);
+			final double v = get(step2, id) - 2 * get(step1, id)
+					+ get(this, id);
+			newProbs[id] = get(this, id) - 2 * alpha * r + alpha * alpha * v;
+			if (!(newProbs[id] > 0 && newProbs[id] <= 1))
+				return null;
+		}
+		return step2.next(newProbs);
+	}
+
+	/** Get the Euclidean distance to the given probabilities */
+	public double distance(final ItemsetProbabilities other) {
+		final int length = Math.max(getLength(), other.getLength());
+		double norm = 0;
+		for (int id = 0; id < length; id++)
+			norm += Math.pow(get(other, id) - get(this, id), 2);
+		return Math.sqrt(norm);
+	}
+
+	private static double get(final ItemsetProbabilities probs, final int id) {
+		if (id >= 0 && id == probs.overlayId)
+			return probs.overlayProb;
+		return id >= 0 && id < probs.probs.length ? probs.probs[id] : 0;
+	}
+
+	/** One more than the largest ID with a probability */
+	private int getLength() {
+		return Math.max(probs.length, overlayId + 1);
+	}
+
+	/** Get the itemsets with non-zero probability */
+	public HashMap<Itemset, Double> toMap() {
+		final HashMap<Itemset, Double> map = ItemsetRegistry.getInstance()
+				.toMap(probs);
+		if (overlayId >= 0) {
+			final Itemset set = ItemsetRegistry.getInstance().get(overlayId);
+			if (overlayProb != 0)
+				map.put(set, overlayProb);
+			else
+				map.remove(set);
+		}
+		return map;
+	}
+
+}
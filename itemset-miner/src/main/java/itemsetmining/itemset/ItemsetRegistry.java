@@ -0,0 +1,105 @@
+package itemsetmining.itemset;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Concurrent registry interning itemsets, i.e. mapping each distinct itemset
+ * to a canonical instance with a stable int ID (0, 1, 2, ... in order of
+ * registration). This lets the EM steps key coverings, counts and supports by
+ * ID instead of hashing itemsets. It is implemented by using the "singleton"
+ * design pattern.
+ * <p>
+ * N.B. IDs are only ever assigned on the driver, Spark executors use the IDs
+ * carried by the (serialized) itemsets.
+ */
+public class ItemsetRegistry {
+
+	// the only instance of this class (this is the "singleton" design pattern)
+	private static final ItemsetRegistry instance = new ItemsetRegistry();
+
+	/** Canonical instance of each registered itemset */
+	private final ConcurrentHashMap<Itemset, Itemset> canonical = new ConcurrentHashMap<>();
+
+	/** Registered itemsets indexed by ID */
+	private volatile Itemset[] itemsets = new Itemset[16];
+
+	/** Number of registered itemsets */
+	private volatile int size = 0;
+
+	/**
+	 * Method to obtain the only instance of this class
+	 *
+	 * @return instance of ItemsetRegistry
+	 */
+	public static ItemsetRegistry getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Get the canonical instance of the given itemset, registering it (and
+	 * assigning it an ID) if it is not yet registered
+	 */
+	public Itemset intern(final Itemset set) {
+		final Itemset existing = canonical.get(set);
+		if (existing != null)
+			return existing;
+		return canonical.computeIfAbsent(set, this::register);
+	}
+
+	/** Assign the next ID to the given itemset */
+	private synchronized Itemset register(final Itemset set) {
+		set.setId(size);
+		if (size == itemsets.length)
+			itemsets = Arrays.copyOf(itemsets, 2 * size);
+		itemsets[size] = set;
+		size++;
+		return set;
+	}
+
+	/** Get the ID of the given itemset or -1 if it is not registered */
+	public int getId(final Itemset set) {
+		final int id = set.getId();
+		if (id >= 0 && id < size && itemsets[id] == set)
+			return id;
+		final Itemset existing = canonical.get(set);
+		return existing == null ? -1 : existing.getId();
+	}
+
+	/** Get the itemset with the given ID */
+	public Itemset get(final int id) {
+		return itemsets[id];
+	}
+
+	/** Number of registered itemsets (i.e. one more than the largest ID) */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Get the itemsets with a non-zero value in the given array indexed by ID
+	 */
+	public HashMap<Itemset, Double> toMap(final double[] values) {
+		final HashMap<Itemset, Double> map = new HashMap<>();
+		for (int id = 0; id < values.length; id++) {
+			if (values[id] != 0)
+				map.put(itemsets[id], values[id]);
+		}
+		return map;
+	}
+
+	/**
+	 * Remove all registered itemsets (the IDs of previously interned itemsets
+	 * are then meaningless)
+	 */
+	public synchronized void clear() {
+		canonical.clear();
+		itemsets = new Itemset[16];
+		size = 0;
+	}
+
+	private ItemsetRegistry() {
+	}
+
+}
@@ -5,6 +5,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -19,6 +20,7 @@ import org.apache.hadoop.fs.Path;
 
 import com.google.common.collect.Multiset;
 
+import itemsetmining.transaction.TransactionFormat;
 import itemsetmining.util.MemoryLogger;
 
 /**
@@ -54,6 +56,9 @@ public class ItemsetTree {
 	// items with their supports (for ordering items in the tree)
 	private final Multiset<Integer> items;
 
+	// dictionary of items ranked by support (null if items are not ranked)
+	private final ItemDictionary dictionary;
+
 	// number of transactions in database used to build this tree
 	private int noTransactions = -1;
 
@@ -87,6 +92,34 @@ public class ItemsetTree {
 	 */
 	public ItemsetTree(final Multiset<Integer> singletons) {
 		items = singletons;
+		dictionary = null;
+	}
+
+	/**
+	 * Constructor for a tree over the item IDs of the given dictionary. As IDs
+	 * are ranked by descending support, items are ordered by int comparison.
+	 */
+	public ItemsetTree(final ItemDictionary dictionary) {
+		items = dictionary.getSupports();
+		this.dictionary = dictionary;
+	}
+
+	/**
+	 * Compare items by descending order of support
+	 */
+	private int compareItems(final int item1, final int item2) {
+		if (dictionary != null)
+			return Integer.compare(item1, item2);
+		return itemComparator.compare(item1, item2);
+	}
+
+	/**
+	 * Get the items of the given itemset sorted by descending order of support
+	 */
+	private int[] sortItems(final AbstractItemset set) {
+		if (dictionary != null)
+			return set.stream().mapToInt(i -> i).toArray();
+		return set.stream().sorted(itemComparator).mapToInt(i -> i).toArray();
 	}
 
 	/**
@@ -94,16 +127,16 @@ public class ItemsetTree {
 	 */
 	public Itemset randomWalk() {
 
-		final Itemset set = new Itemset();
-		traverse(root, set);
+		final List<Integer> items = new ArrayList<>();
+		traverse(root, items);
 
-		return set;
+		return new Itemset(items);
 	}
 
 	/**
 	 * Traverse this tree in a random walk
 	 */
-	public void traverse(final ItemsetTreeNode node, final Itemset itemset) {
+	public void traverse(final ItemsetTreeNode node, final List<Integer> itemset) {
 
 		// Add node's itemset elements with probability 0.5
 		if (!node.equals(root)) { // root node is empty
@@ -178,8 +211,9 @@ public class ItemsetTree {
 			}
 
 			// add transaction to the tree
-			addTransaction(line);
-			count++;
+			final int transactionCount = TransactionFormat.getCount(line);
+			addTransaction(TransactionFormat.getItems(line), transactionCount);
+			count += transactionCount;
 		}
 		// close the input file
 		LineIterator.closeQuietly(it);
@@ -225,8 +259,9 @@ public class ItemsetTree {
 			}
 
 			// add transaction to the tree
-			addTransaction(line);
-			count++;
+			final int transactionCount = TransactionFormat.getCount(line);
+			addTransaction(TransactionFormat.getItems(line), transactionCount);
+			count += transactionCount;
 		}
 		// close the input file
 		reader.close();
@@ -242,26 +277,34 @@ public class ItemsetTree {
 	/**
 	 * Add transaction to tree
 	 *
-	 * @param line
-	 *            the transaction as a string of items
+	 * @param lineSplit
+	 *            the transaction as an array of item strings
+	 * @param count
+	 *            the number of times the transaction occurs
 	 */
-	private void addTransaction(final String line) {
-
-		// split the transaction into items
-		final String[] lineSplit = line.split(" ");
-		// create a structure for storing the transaction
-		final Itemset itemset = new Itemset();
-		// for each item in the transaction
-		for (int i = 0; i < lineSplit.length; i++) {
-			// convert the item to integer and add it to the structure
-			itemset.add(Integer.parseInt(lineSplit[i]));
-		}
+	private void addTransaction(final String[] lineSplit, final int count) {
 
-		// sort items in the itemset by descending order of support
-		final int[] sortedItemset = itemset.stream().sorted(itemComparator).mapToInt(i -> i).toArray();
+		// ranked items are already in descending order of support once sorted
+		final int[] sortedItemset;
+		if (dictionary != null) {
+			final int[] items = dictionary.encode(lineSplit);
+			sortedItemset = Arrays.copyOf(items, AbstractItemset.sortDistinct(items));
+		} else {
+			// create a structure for storing the transaction
+			final int[] items = new int[lineSplit.length];
+			// for each item in the transaction
+			for (int i = 0; i < lineSplit.length; i++) {
+				// convert the item to integer and add it to the structure
+				items[i] = Integer.parseInt(lineSplit[i]);
+			}
+			final Itemset itemset = new Itemset(items);
+
+			// sort items in the itemset by descending order of support
+			sortedItemset = sortItems(itemset);
+		}
 
 		// call the method "construct" to add the transaction to the tree
-		construct(null, root, sortedItemset, null);
+		construct(null, root, sortedItemset, null, count);
 	}
 
 	/**
@@ -275,14 +318,16 @@ public class ItemsetTree {
 	 * @param prefix
 	 *            the current item(s) explored in this branch of the tree until
 	 *            the current node r.
+	 * @param count
+	 *            the number of times the itemset is inserted
 	 */
 	private void construct(final ItemsetTreeNode parentOfR, final ItemsetTreeNode r, final int[] s,
-			final int[] prefix) {
+			final int[] prefix, final int count) {
 
 		// if the itemset in root node is the same as the one to be inserted,
 		// we just increase the support, and return.
 		if (same(s, prefix, r.itemset)) {
-			r.support++;
+			r.support += count;
 			return;
 		}
 
@@ -310,8 +355,8 @@ public class ItemsetTree {
 
 			// create a new node for the itemset to be inserted with the support
 			// of
-			// the subtree root node + 1
-			final ItemsetTreeNode newNodeS = new ItemsetTreeNode(sprime, r.support + 1);
+			// the subtree root node + count
+			final ItemsetTreeNode newNodeS = new ItemsetTreeNode(sprime, r.support + count);
 			// set the childs and parent pointers.
 			newNodeS.children.add(r);
 			parentOfR.children.remove(r);
@@ -329,8 +374,8 @@ public class ItemsetTree {
 			final int[] rprime = copyItemsetWithoutItemsFrom(r.itemset, l);
 
 			// create a new node with that ancestor and the support of
-			// the root +1.
-			final ItemsetTreeNode newNode = new ItemsetTreeNode(l, r.support + 1);
+			// the root + count.
+			final ItemsetTreeNode newNode = new ItemsetTreeNode(l, r.support + count);
 			// set the node childs and parent pointers
 			newNode.children.add(r);
 			parentOfR.children.remove(r);
@@ -338,8 +383,8 @@ public class ItemsetTree {
 			// parentOfR = newNode;
 			r.itemset = rprime;
 			// append second children which is the itemset to be added with a
-			// support of 1
-			final ItemsetTreeNode newNode2 = new ItemsetTreeNode(sprime, 1);
+			// support of count
+			final ItemsetTreeNode newNode2 = new ItemsetTreeNode(sprime, count);
 			// update pointers for the new node
 			newNode.children.add(newNode2);
 			// newNode2.parent = newNode;
@@ -349,7 +394,7 @@ public class ItemsetTree {
 		// else get the length of the root itemset
 		final int indexLastItemOfR = (rprefix == null) ? 0 : rprefix.length;
 		// increase the support of the root
-		r.support++;
+		r.support += count;
 		// for each child of the root
 		for (final ItemsetTreeNode ci : r.children) {
 			final int[] ciprefix = append(rprefix, ci.itemset);
@@ -357,7 +402,7 @@ public class ItemsetTree {
 			// if one children of the root is the itemset to be inserted s,
 			// then increase its support and stop
 			if (same(s, ciprefix)) { // case 2
-				ci.support++;
+				ci.support += count;
 				return;
 			}
 
@@ -368,7 +413,7 @@ public class ItemsetTree {
 
 				// create a new node between ci and r in the tree
 				// and update child /parents pointers
-				final ItemsetTreeNode newNode = new ItemsetTreeNode(sprime, ci.support + 1);
+				final ItemsetTreeNode newNode = new ItemsetTreeNode(sprime, ci.support + count);
 				newNode.children.add(ci);
 				// newNode.parent = r;
 				r.children.remove(ci);
@@ -382,7 +427,7 @@ public class ItemsetTree {
 			if (ancestorOf(ciprefix, s)) { // case 4
 
 				// then make a recursive call to construct to handle this case.
-				construct(r, ci, s, rprefix);
+				construct(r, ci, s, rprefix, count);
 				return;
 			}
 
@@ -393,11 +438,11 @@ public class ItemsetTree {
 				final int[] ancestor = getLargestCommonAncestor(s, ciprefix);
 				// create a new node for the ancestor itemset just found with
 				// the support
-				// of ci + 1
+				// of ci + count
 
 				final int[] ancestorprime = copyItemsetWithoutItemsFrom(ancestor, rprefix);
 
-				final ItemsetTreeNode newNode = new ItemsetTreeNode(ancestorprime, ci.support + 1);
+				final ItemsetTreeNode newNode = new ItemsetTreeNode(ancestorprime, ci.support + count);
 				// set r as parent
 				// newNode.parent = r;
 				r.children.add(newNode);
@@ -406,10 +451,10 @@ public class ItemsetTree {
 				newNode.children.add(ci);
 				// ci.parent = newNode;
 				r.children.remove(ci);
-				// create another new node for s with a support of 1, which
+				// create another new node for s with a support of count, which
 				// will be the child of the first new node
 				final int[] sprime = copyItemsetWithoutItemsFromArrays(s, ancestorprime, rprefix);
-				final ItemsetTreeNode newNode2 = new ItemsetTreeNode(sprime, 1);
+				final ItemsetTreeNode newNode2 = new ItemsetTreeNode(sprime, count);
 				// newNode2.parent = newNode;
 				newNode.children.add(newNode2);
 				// end
@@ -419,10 +464,10 @@ public class ItemsetTree {
 		}
 
 		// Otherwise, case 1:
-		// A new node is created for s with a support of 1 and is added
+		// A new node is created for s with a support of count and is added
 		// below the node r.
 		final int[] sprime = copyItemsetWithoutItemsFrom(s, rprefix);
-		final ItemsetTreeNode newNode = new ItemsetTreeNode(sprime, 1);
+		final ItemsetTreeNode newNode = new ItemsetTreeNode(sprime, count);
 		// newNode.parent = r;
 		r.children.add(newNode);
 
@@ -459,7 +504,7 @@ public class ItemsetTree {
 						// descending support ordering) the current item from r,
 						// then break because itemsets are ordered so there will
 						// be no match.
-					} else if (itemComparator.compare(pvalue, rvalue) > 0) {
+					} else if (compareItems(pvalue, rvalue) > 0) {
 						break;
 					}
 				}
@@ -477,7 +522,7 @@ public class ItemsetTree {
 						// descending support ordering) the current item from r,
 						// then break because itemsets are ordered so there will
 						// be no match.
-					} else if (itemComparator.compare(svalue, rvalue) > 0) {
+					} else if (compareItems(svalue, rvalue) > 0) {
 						break;
 					}
 				}
@@ -523,7 +568,7 @@ public class ItemsetTree {
 					// is larger than (wrt descending support ordering) the
 					// current item from "itemset1" there will be no match
 					// because itemsets are ordered .
-				} else if (itemComparator.compare(i2value, i1value) > 0) {
+				} else if (compareItems(i2value, i1value) > 0) {
 					break;
 				}
 			}
@@ -814,9 +859,9 @@ public class ItemsetTree {
 	 */
 	public double getChiSquared(final Itemset set1, final Itemset set2, final Itemset set1And2) {
 		// sort by descending support
-		final int[] sortedItems1 = set1.stream().sorted(itemComparator).mapToInt(i -> i).toArray();
-		final int[] sortedItems2 = set2.stream().sorted(itemComparator).mapToInt(i -> i).toArray();
-		final int[] sortedItems1And2 = set1And2.stream().sorted(itemComparator).mapToInt(i -> i).toArray();
+		final int[] sortedItems1 = sortItems(set1);
+		final int[] sortedItems2 = sortItems(set2);
+		final int[] sortedItems1And2 = sortItems(set1And2);
 
 		// contingency table
 		final int supp1And2 = countEmpirical(sortedItems1And2, new int[0], root, new int[0]);
@@ -864,7 +909,7 @@ public class ItemsetTree {
 	 */
 	public double getChiSquaredOfItemset(final Itemset set, final Multiset<Integer> singletons) {
 		// sort by descending support
-		final int[] sortedItems = set.stream().sorted(itemComparator).mapToInt(i -> i).toArray();
+		final int[] sortedItems = sortItems(set);
 		return recursiveChiSquared(0, new BitSet(set.size()), sortedItems, singletons);
 	}
 
@@ -937,7 +982,7 @@ public class ItemsetTree {
 			// of the child, we need to look further in that tree. Also,
 			// we can stop if any elements from exc are contained in the child.
 			final int[] ciprefix = append(prefix, ci.itemset);
-			if (itemComparator.compare(ciprefix[0], s[0]) <= 0 && !containsAny(ci.itemset, exc)) {
+			if (compareItems(ciprefix[0], s[0]) <= 0 && !containsAny(ci.itemset, exc)) {
 
 				// if s is included in ci, add the support of ci to the current
 				// count.
@@ -946,7 +991,7 @@ public class ItemsetTree {
 					// remove the support of any subtree paths that contain
 					// elements from exc
 					count -= countSubtree(exc, ci);
-				} else if (itemComparator.compare(ciprefix[ciprefix.length - 1], s[s.length - 1]) < 0) {
+				} else if (compareItems(ciprefix[ciprefix.length - 1], s[s.length - 1]) < 0) {
 					// otherwise, if the last item of ci is smaller than (wrt
 					// descending support ordering) the last item of s,
 					// then make a recursive call to explore
@@ -969,7 +1014,7 @@ public class ItemsetTree {
 		for (final ItemsetTreeNode ci : root.children) {
 			if (containsAny(ci.itemset, exc)) {
 				count += ci.support;
-			} else if (!(itemComparator.compare(exc[exc.length - 1], ci.itemset[0]) < 0)) {
+			} else if (!(compareItems(exc[exc.length - 1], ci.itemset[0]) < 0)) {
 				// otherwise, if the last item of exc is *not* smaller than (wrt
 				// descending support ordering) the first item of the child,
 				// make a recursive call to explore the subtree with ci as root
@@ -1000,7 +1045,7 @@ public class ItemsetTree {
 				// If the last item of the itemset is smaller than (wrt
 				// descending support ordering) the first item of the child,
 				// the child cannot contain any items from the itemset
-				if (itemComparator.compare(s[s.length - 1], ci.itemset[0]) < 0)
+				if (compareItems(s[s.length - 1], ci.itemset[0]) < 0)
 					count += ci.support;
 				else {
 					// otherwise, add the support of ci to the current count
@@ -1030,8 +1075,8 @@ public class ItemsetTree {
 		// ordering) the first item in the itemset then this is false, and
 		// similarly when the first item in items is greater than the last item
 		// in the itemset
-		if (itemComparator.compare(items[items.length - 1], itemset[0]) < 0
-				|| itemComparator.compare(items[0], itemset[itemset.length - 1]) > 0)
+		if (compareItems(items[items.length - 1], itemset[0]) < 0
+				|| compareItems(items[0], itemset[itemset.length - 1]) > 0)
 			return false;
 		// Otherwise we have to check each item individually
 		for (final int item : items) {
@@ -1059,7 +1104,7 @@ public class ItemsetTree {
 				// if the current item is larger than (wrt descending support
 				// ordering) the item that is searched,
 				// then return false because of the ordering.
-			} else if (itemComparator.compare(itemset[i], item) > 0) {
+			} else if (compareItems(itemset[i], item) > 0) {
 				return false;
 			}
 		}
@@ -1076,7 +1121,7 @@ public class ItemsetTree {
 	 */
 	public int getSupportOfItemset(final Itemset set) {
 		// sort by descending support
-		final int[] sortedItems = set.stream().sorted(itemComparator).mapToInt(i -> i).toArray();
+		final int[] sortedItems = sortItems(set);
 		return count(sortedItems, root, new int[0]); // call count method
 	}
 
@@ -1089,7 +1134,7 @@ public class ItemsetTree {
 	 */
 	public double getRelativeSupportOfItemset(final Itemset set) {
 		// sort by descending support
-		final int[] sortedItems = set.stream().sorted(itemComparator).mapToInt(i -> i).toArray();
+		final int[] sortedItems = sortItems(set);
 		// call count method
 		return (double) count(sortedItems, root, new int[0]) / noTransactions;
 	}
@@ -1132,13 +1177,13 @@ public class ItemsetTree {
 			// of the child, we need to look further in that tree.
 			final int[] ciprefix = append(prefix, ci.itemset);
 
-			if (itemComparator.compare(ciprefix[0], s[0]) <= 0) {
+			if (compareItems(ciprefix[0], s[0]) <= 0) {
 
 				// if s is included in ci, add the support of ci to the current
 				// count.
 				if (includedIn(s, ciprefix)) {
 					count += ci.support;
-				} else if (itemComparator.compare(ciprefix[ciprefix.length - 1], s[s.length - 1]) < 0) {
+				} else if (compareItems(ciprefix[ciprefix.length - 1], s[s.length - 1]) < 0) {
 					// otherwise, if the last item of ci is smaller than (wrt
 					// descending support ordering) the last item of s,
 					// then make a recursive call to explore
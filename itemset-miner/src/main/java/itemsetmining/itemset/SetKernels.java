@@ -0,0 +1,185 @@
+package itemsetmining.itemset;
+
+/**
+ * Non-allocating set algebra on the two itemset layouts: bitset words (dense)
+ * and strictly increasing int arrays (sparse). Word arrays may have different
+ * lengths, missing words are treated as zero.
+ */
+public final class SetKernels {
+
+	/** Check if bit i is set in the given words */
+	public static boolean get(final long[] words, final int i) {
+		final int w = i >>> 6;
+		return w < words.length && (words[w] & (1L << i)) != 0;
+	}
+
+	/** Index of the first set bit at or after from, or -1 if none */
+	public static int nextSetBit(final long[] words, final int from) {
+		int w = from >>> 6;
+		if (w >= words.length)
+			return -1;
+		long word = words[w] & (-1L << from);
+		while (word == 0) {
+			if (++w == words.length)
+				return -1;
+			word = words[w];
+		}
+		return (w << 6) + Long.numberOfTrailingZeros(word);
+	}
+
+	/** Number of set bits in the given words */
+	public static int cardinality(final long[] words) {
+		int count = 0;
+		for (final long word : words)
+			count += Long.bitCount(word);
+		return count;
+	}
+
+	/** Check if every bit of a is also set in b */
+	public static boolean isSubset(final long[] a, final long[] b) {
+		final int common = Math.min(a.length, b.length);
+		for (int w = 0; w < common; w++) {
+			if ((a[w] & ~b[w]) != 0)
+				return false;
+		}
+		for (int w = common; w < a.length; w++) {
+			if (a[w] != 0)
+				return false;
+		}
+		return true;
+	}
+
+	/** Check if every element of a is set in b */
+	public static boolean isSubset(final int[] a, final int aLen,
+			final long[] b) {
+		for (int i = 0; i < aLen; i++) {
+			if (!get(b, a[i]))
+				return false;
+		}
+		return true;
+	}
+
+	/** Check if every element of a is also in b */
+	public static boolean isSubset(final int[] a, final int aLen,
+			final int[] b, final int bLen) {
+		if (aLen > bLen)
+			return false;
+		int j = 0;
+		for (int i = 0; i < aLen; i++) {
+			while (j < bLen && b[j] < a[i])
+				j++;
+			if (j == bLen || b[j] != a[i])
+				return false;
+			j++;
+		}
+		return true;
+	}
+
+	/** Check if every bit of a is an element of b */
+	public static boolean isSubset(final long[] a, final int[] b,
+			final int bLen) {
+		int count = 0;
+		for (final long word : a)
+			count += Long.bitCount(word);
+		return count <= bLen && intersectionCount(b, bLen, a) == count;
+	}
+
+	/** Number of bits set in both a and b */
+	public static int intersectionCount(final long[] a, final long[] b) {
+		final int common = Math.min(a.length, b.length);
+		int count = 0;
+		for (int w = 0; w < common; w++)
+			count += Long.bitCount(a[w] & b[w]);
+		return count;
+	}
+
+	/** Number of elements of a that are set in b */
+	public static int intersectionCount(final int[] a, final int aLen,
+			final long[] b) {
+		int count = 0;
+		for (int i = 0; i < aLen; i++) {
+			if (get(b, a[i]))
+				count++;
+		}
+		return count;
+	}
+
+	/** Number of elements in both a and b (by merging) */
+	public static int intersectionCount(final int[] a, final int aLen,
+			final int[] b, final int bLen) {
+		int count = 0;
+		for (int i = 0, j = 0; i < aLen && j < bLen;) {
+			if (a[i] < b[j]) {
+				i++;
+			} else if (a[i] > b[j]) {
+				j++;
+			} else {
+				count++;
+				i++;
+				j++;
+			}
+		}
+		return count;
+	}
+
+	/** Number of bits set in a or b */
+	public static int unionCount(final long[] a, final long[] b) {
+		final long[] longer = a.length >= b.length ? a : b;
+		final long[] shorter = longer == a ? b : a;
+		int count = 0;
+		for (int w = 0; w < shorter.length; w++)
+			count += Long.bitCount(a[w] | b[w]);
+		for (int w = shorter.length; w < longer.length; w++)
+			count += Long.bitCount(longer[w]);
+		return count;
+	}
+
+	/** Check if no bit is set in both a and b */
+	public static boolean disjoint(final long[] a, final long[] b) {
+		final int common = Math.min(a.length, b.length);
+		for (int w = 0; w < common; w++) {
+			if ((a[w] & b[w]) != 0)
+				return false;
+		}
+		return true;
+	}
+
+	/** Check if no element of a is set in b */
+	public static boolean disjoint(final int[] a, final int aLen,
+			final long[] b) {
+		for (int i = 0; i < aLen; i++) {
+			if (get(b, a[i]))
+				return false;
+		}
+		return true;
+	}
+
+	/** Check if a and b have no element in common (by merging) */
+	public static boolean disjoint(final int[] a, final int aLen,
+			final int[] b, final int bLen) {
+		for (int i = 0, j = 0; i < aLen && j < bLen;) {
+			if (a[i] < b[j])
+				i++;
+			else if (a[i] > b[j])
+				j++;
+			else
+				return false;
+		}
+		return true;
+	}
+
+	/** Number of bits that are set in a but not in b */
+	public static int differenceCount(final long[] a, final long[] b) {
+		final int common = Math.min(a.length, b.length);
+		int count = 0;
+		for (int w = 0; w < common; w++)
+			count += Long.bitCount(a[w] & ~b[w]);
+		for (int w = common; w < a.length; w++)
+			count += Long.bitCount(a[w]);
+		return count;
+	}
+
+	private SetKernels() {
+	}
+
+}
@@ -0,0 +1,199 @@
+package itemsetmining.main;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import itemsetmining.itemset.Itemset;
+import itemsetmining.itemset.ItemsetProbabilities;
+import itemsetmining.itemset.SetKernels;
+import itemsetmining.transaction.Transaction;
+import itemsetmining.transaction.TransactionDatabase;
+import itemsetmining.transaction.TransactionOverlay;
+
+/**
+ * Screening of structural EM candidates on a stratified random sample of the
+ * transactions that support them
+ * <p>
+ * Transactions are stratified by size (on a log2 scale) as larger
+ * transactions have more itemsets whose coverings can change. The change in
+ * covering counts over all supporting transactions is estimated by scaling up
+ * each stratum's sample, and resampling within the strata (bootstrap) gives a
+ * lower confidence bound on the average cost with the candidate. A candidate
+ * whose bound is no better than the current cost is confidently worse.
+ */
+public class CandidateScreen {
+
+	/** Number of bootstrap resamples */
+	private static final int NO_BOOTSTRAP_SAMPLES = 200;
+
+	/** One-sided confidence level of the lower bound */
+	private static final double CONFIDENCE = 0.95;
+
+	/** Get the stratum of the given transaction */
+	static int getStratum(final Transaction transaction) {
+		return 32 - Integer.numberOfLeadingZeros(transaction.size());
+	}
+
+	/** Get the number of the given transactions in each stratum */
+	static Map<Integer, Long> getStratumSizes(final int[] tids,
+			final List<Transaction> transactionList) {
+		final Map<Integer, Long> stratumSizes = new HashMap<>();
+		for (final int tid : tids)
+			stratumSizes.merge(getStratum(transactionList.get(tid)), 1L,
+					Long::sum);
+		return stratumSizes;
+	}
+
+	/** Get the number of transactions to sample from a stratum */
+	static int getStratumSampleSize(final long stratumSize,
+			final long noTransactions, final int sampleSize) {
+		return (int) Math.min(stratumSize, Math.max(1,
+				Math.round(sampleSize * stratumSize / (double) noTransactions)));
+	}
+
+	/**
+	 * Select a stratified random sample of about sampleSize of the given tids
+	 * (allocated proportionally to the strata)
+	 */
+	static int[] sample(final int[] tids,
+			final List<Transaction> transactionList, final int sampleSize,
+			final Random random) {
+
+		// Group tids by stratum
+		final TreeMap<Integer, List<Integer>> strata = new TreeMap<>();
+		for (final int tid : tids)
+			strata.computeIfAbsent(getStratum(transactionList.get(tid)),
+					k -> new ArrayList<>()).add(tid);
+
+		// Partially shuffle each stratum and take its first tids
+		int[] sample = new int[0];
+		for (final List<Integer> stratum : strata.values()) {
+			final int n = getStratumSampleSize(stratum.size(), tids.length,
+					sampleSize);
+			for (int i = 0; i < n; i++)
+				stratum.set(i, stratum.set(
+						i + random.nextInt(stratum.size() - i), stratum.get(i)));
+			final int len = sample.length;
+			sample = Arrays.copyOf(sample, len + n);
+			for (int i = 0; i < n; i++)
+				sample[len + i] = stratum.get(i);
+		}
+		return sample;
+	}
+
+	/**
+	 * Get the lower confidence bound on the average cost with the candidate
+	 * from its (tentative) overlays on a stratified sample of the transactions
+	 * that support it
+	 *
+	 * @param cacheCount
+	 *            weighted number of transactions supporting the candidate
+	 * @param stratumSizes
+	 *            number of transactions supporting the candidate in each
+	 *            stratum
+	 */
+	static double getLowerBound(final TransactionDatabase transactions,
+			final Itemset candidate, final int cacheCount,
+			final List<TransactionOverlay> sample,
+			final Map<Integer, Long> stratumSizes, final Random random) {
+
+		// Get the (weighted) covering changes of each sampled transaction
+		final ItemsetProbabilities probs = transactions.getProbabilities();
+		final TreeMap<Integer, List<int[][]>> strata = new TreeMap<>();
+		for (final TransactionOverlay overlay : sample)
+			strata.computeIfAbsent(getStratum(overlay.getTransaction()),
+					k -> new ArrayList<>()).add(
+					getCoveringChanges(overlay, probs));
+
+		// Estimate the cost with each resample of the strata
+		final double[] averageCosts = new double[NO_BOOTSTRAP_SAMPLES];
+		for (int b = 0; b < NO_BOOTSTRAP_SAMPLES; b++) {
+			double[] changes = new double[0];
+			for (final Map.Entry<Integer, List<int[][]>> entry : strata
+					.entrySet()) {
+				final List<int[][]> stratum = entry.getValue();
+				final double scale = stratumSizes.get(entry.getKey())
+						/ (double) stratum.size();
+				for (int i = 0; i < stratum.size(); i++) {
+					final int[][] idsWithChanges = stratum.get(random
+							.nextInt(stratum.size()));
+					for (int j = 0; j < idsWithChanges[0].length; j++) {
+						final int id = idsWithChanges[0][j];
+						if (id >= changes.length)
+							changes = Arrays.copyOf(changes, id + 1);
+						changes[id] += scale * idsWithChanges[1][j];
+					}
+				}
+			}
+			averageCosts[b] = transactions.getAverageCost()
+					+ EMStep.getCostChange(transactions,
+							getFeasibleChanges(transactions, changes,
+									candidate, cacheCount), candidate,
+							cacheCount) / transactions.size();
+		}
+
+		Arrays.sort(averageCosts);
+		return averageCosts[(int) ((1 - CONFIDENCE) * NO_BOOTSTRAP_SAMPLES)];
+	}
+
+	/**
+	 * Get the itemset IDs and weighted changes in their covering counts when
+	 * switching from the committed to the overlay covering
+	 */
+	private static int[][] getCoveringChanges(final TransactionOverlay overlay,
+			final ItemsetProbabilities probs) {
+		final HashMap<Integer, Integer> changes = new HashMap<>();
+		final Transaction transaction = overlay.getTransaction();
+		final int weight = transaction.getWeight();
+		final long[] committed = overlay.getCommittedCovering();
+		for (int i = SetKernels.nextSetBit(committed, 0); i >= 0; i = SetKernels
+				.nextSetBit(committed, i + 1))
+			changes.merge(transaction.getItemset(i, probs, null).getId(),
+					-weight, Integer::sum);
+		final long[] covering = overlay.getCovering();
+		for (int i = SetKernels.nextSetBit(covering, 0); i >= 0; i = SetKernels
+				.nextSetBit(covering, i + 1))
+			changes.merge(transaction.getItemset(i, probs,
+					overlay.getCandidate()).getId(), weight, Integer::sum);
+		changes.values().removeIf(change -> change == 0);
+
+		final int[][] idsWithChanges = new int[2][changes.size()];
+		int i = 0;
+		for (final Map.Entry<Integer, Integer> entry : changes.entrySet()) {
+			idsWithChanges[0][i] = entry.getKey();
+			idsWithChanges[1][i++] = entry.getValue();
+		}
+		return idsWithChanges;
+	}
+
+	/**
+	 * Round the estimated covering count changes so that each covering count
+	 * stays between zero and the itemset's cache count
+	 */
+	private static int[] getFeasibleChanges(
+			final TransactionDatabase transactions, final double[] changes,
+			final Itemset candidate, final int cacheCount) {
+		final int[] coveringCounts = transactions.getCoveringCounts();
+		final int[] cacheCounts = transactions.getCacheCounts();
+		final int[] feasibleChanges = new int[changes.length];
+		for (int id = 0; id < changes.length; id++) {
+			final int count = id == candidate.getId() ? 0 : EMStep.getCount(
+					coveringCounts, id);
+			final int setCacheCount = id == candidate.getId() ? cacheCount
+					: EMStep.getCount(cacheCounts, id);
+			final long newCount = Math.round(count + changes[id]);
+			feasibleChanges[id] = (int) Math.max(0,
+					Math.min(setCacheCount, newCount)) - count;
+		}
+		return feasibleChanges;
+	}
+
+	private CandidateScreen() {
+	}
+
+}
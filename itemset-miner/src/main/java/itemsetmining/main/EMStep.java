@@ -1,125 +1,429 @@
 package itemsetmining.main;
 
-import static java.util.function.Function.identity;
-import static java.util.stream.Collectors.counting;
-import static java.util.stream.Collectors.groupingBy;
-
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.stream.Collectors;
-
-import com.google.common.collect.Multiset;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import itemsetmining.itemset.Itemset;
+import itemsetmining.itemset.ItemsetProbabilities;
+import itemsetmining.itemset.ItemsetRegistry;
+import itemsetmining.itemset.SetKernels;
 import itemsetmining.main.InferenceAlgorithms.InferenceAlgorithm;
+import itemsetmining.transaction.ItemsetCache;
+import itemsetmining.transaction.ProjectionClasses;
+import itemsetmining.transaction.TidsetIndex;
 import itemsetmining.transaction.Transaction;
+import itemsetmining.transaction.TransactionOverlay;
 import itemsetmining.transaction.TransactionDatabase;
-import scala.Tuple2;
 
-/** Class to hold the various transaction EM Steps */
+/**
+ * Class to hold the various transaction EM Steps
+ * <p>
+ * The database keeps, for each itemset, the number of coverings it is in and
+ * the number of transaction caches it is in. The total cost of the cached
+ * coverings only depends on these counts (see {@link #getCost}) so candidates
+ * are evaluated by only visiting the transactions that support them.
+ */
 public class EMStep {
 
-	/** Initialize cached itemsets */
-	static void initializeCachedItemsets(final TransactionDatabase transactions, final Multiset<Integer> singletons) {
-		final long noTransactions = transactions.size();
+	/**
+	 * Initialize cached itemsets (and projection classes to run inference once
+	 * per class if requested)
+	 */
+	static void initializeCachedItemsets(final TransactionDatabase transactions,
+			final Map<Itemset, Double> singletons, final ItemsetCache.Layout layout, final boolean implicitSingletons,
+			final boolean projectionClasses) {
 		transactions.getTransactionList().parallelStream()
-				.forEach(t -> t.initializeCachedItemsets(singletons, noTransactions));
+				.forEach(t -> t.initializeCachedItemsets(singletons.keySet(), layout, implicitSingletons));
+		transactions.setProjectionClasses(
+				projectionClasses ? new ProjectionClasses(transactions.getTransactionList()) : null);
+
+		// Each itemset is cached by exactly the transactions that support it
+		final TidsetIndex index = transactions.getTidsetIndex();
+		final int[] cacheCounts = new int[ItemsetRegistry.getInstance().size()];
+		for (final Itemset set : singletons.keySet())
+			cacheCounts[set.getId()] = index.getSupport(set);
+		transactions.setCacheCounts(cacheCounts);
 	}
 
 	/** EM-step for hard EM */
-	static Map<Itemset, Double> hardEMStep(final List<Transaction> transactions,
+	static Map<Itemset, Double> hardEMStep(final TransactionDatabase transactions,
 			final InferenceAlgorithm inferenceAlgorithm) {
 		final double noTransactions = transactions.size();
+		final ItemsetProbabilities probs = transactions.getProbabilities();
 
-		// E-step
-		final Map<Itemset, Long> coveringWithCounts = transactions.parallelStream().map(t -> {
-			final HashSet<Itemset> covering = inferenceAlgorithm.infer(t);
-			t.setCachedCovering(covering);
-			return covering;
-		}).flatMap(HashSet::stream).collect(groupingBy(identity(), counting()));
-
-		// M-step
-		final Map<Itemset, Double> newItemsets = coveringWithCounts.entrySet().parallelStream()
-				.collect(Collectors.toMap(Map.Entry::getKey, v -> v.getValue() / noTransactions));
+		// E-step (inferring once per projection class if possible)
+		final List<Transaction> transactionList = transactions.getTransactionList();
+		final ProjectionClasses classes = transactions.getProjectionClasses();
+		final CoveringCounts coveringWithCounts;
+		if (classes == null) {
+			final long[][] coverings = inferChunks(transactionList, inferenceAlgorithm, probs, null);
+			coveringWithCounts = countCoverings(IntStream.range(0, transactionList.size()).parallel().mapToObj(tid -> {
+				final Transaction t = transactionList.get(tid);
+				t.setCachedCovering(coverings[tid]);
+				return t;
+			}), probs);
+		} else {
+			final int[] representatives = IntStream.range(0, classes.size()).map(classes::getRepresentative)
+					.filter(tid -> tid >= 0).toArray();
+			final Map<Integer, long[]> classCoverings = getClassCoverings(classes, representatives,
+					inferChunks(getTransactions(transactionList, representatives), inferenceAlgorithm, probs, null));
+			coveringWithCounts = countCoverings(IntStream.range(0, transactionList.size()).parallel().mapToObj(tid -> {
+				final Transaction t = transactionList.get(tid);
+				final int classId = classes.getClass(tid);
+				final int representative = classes.getRepresentative(classId);
+				if (tid == representative)
+					t.setCachedCovering(classCoverings.get(classId));
+				else
+					t.setCachedCovering(classes.shareCovering(transactionList.get(representative),
+							classCoverings.get(classId), t, probs, null));
+				return t;
+			}), probs);
+		}
 
-		// Update cached itemsets
-		transactions.parallelStream().forEach(t -> t.updateCachedItemsets(newItemsets));
+		// M-step (caches drop zero probability itemsets lazily)
+		final ItemsetProbabilities newProbs = probs.next(coveringWithCounts.getProbabilities(noTransactions));
+		transactions.setProbabilities(newProbs);
+		transactions.setCoveringCounts(coveringWithCounts.counts);
 
-		return newItemsets;
+		return newProbs.toMap();
 	}
 
-	/** Get average cost of last EM-step */
+	/** Get average cost of last EM-step (from the covering and cache counts) */
 	static void calculateAndSetAverageCost(final TransactionDatabase transactions) {
 		final double noTransactions = transactions.size();
-		final double averageCost = transactions.getTransactionList().parallelStream()
-				.mapToDouble(Transaction::getCachedCost).sum() / noTransactions;
-		transactions.setAverageCost(averageCost);
+		final int[] coveringCounts = transactions.getCoveringCounts();
+		final int[] cacheCounts = transactions.getCacheCounts();
+		double totalCost = 0;
+		for (int id = 0; id < coveringCounts.length; id++)
+			totalCost += getCost(coveringCounts[id], getCount(cacheCounts, id), noTransactions);
+		transactions.setAverageCost(totalCost / noTransactions);
 	}
 
-	/** EM-step for structural EM */
-	static Tuple2<Double, Double> structuralEMStep(final TransactionDatabase transactions,
-			final InferenceAlgorithm inferenceAlgorithm, final Itemset candidate) {
+	/**
+	 * EM-step for structural EM
+	 * <p>
+	 * NB. this does not modify the transactions, so several candidates can be
+	 * evaluated concurrently
+	 *
+	 * @param sampleSize
+	 *            if positive, first screen the candidate on a stratified sample
+	 *            of about this many supporting transactions (see
+	 *            {@link CandidateScreen}) and only evaluate it in full if it is
+	 *            not confidently worse
+	 */
+	static CandidateEvaluation structuralEMStep(final TransactionDatabase transactions,
+			final InferenceAlgorithm inferenceAlgorithm, final Itemset candidate, final int sampleSize) {
 		final double noTransactions = transactions.size();
+		final List<Transaction> transactionList = transactions.getTransactionList();
 
-		// E-step (adding candidate to transactions that support it)
-		final Map<Itemset, Long> coveringWithCounts = transactions.getTransactionList().parallelStream().map(t -> {
-			if (t.contains(candidate)) {
-				t.addItemsetCache(candidate, 1.0);
-				final HashSet<Itemset> covering = inferenceAlgorithm.infer(t);
-				t.setTempCachedCovering(covering);
-				return covering;
-			}
-			return t.getCachedCovering();
-		}).flatMap(HashSet::stream).collect(groupingBy(identity(), counting()));
-
-		// M-step
-		final Map<Itemset, Double> newItemsets = coveringWithCounts.entrySet().parallelStream()
-				.collect(Collectors.toMap(Map.Entry::getKey, v -> v.getValue() / noTransactions));
-
-		// Get average cost (removing candidate from supported transactions)
-		final double averageCost = transactions.getTransactionList().parallelStream().mapToDouble(t -> {
-			double cost;
-			if (t.contains(candidate))
-				cost = t.getTempCachedCost(newItemsets);
-			else
-				cost = t.getCachedCost(newItemsets);
-			t.removeItemsetCache(candidate);
-			return cost;
-		}).sum() / noTransactions;
+		transactions.countEvaluation();
+
+		// Find transactions that support the candidate
+		final int[] supported = transactions.getTidsetIndex().getSupportingTransactions(candidate);
+
+		// Abort if no transaction supports the candidate (coverings can't change)
+		if (supported.length == 0) {
+			return new CandidateEvaluation(new ArrayList<>(), new CoveringCounts(), 0,
+					transactions.getAverageCost(), 0.);
+		}
+		final int cacheCount = transactions.getTidsetIndex().getWeight(supported);
+		final ItemsetProbabilities probs = transactions.getProbabilities().with(candidate, 1.0);
+
+		// Screen candidate on a sample (rejecting it if confidently worse)
+		if (sampleSize > 0 && supported.length > sampleSize) {
+			final Random random = new Random(candidate.hashCode());
+			final int[] sampled = CandidateScreen.sample(supported, transactionList, sampleSize, random);
+			final List<TransactionOverlay> sample = getOverlays(transactionList, sampled, candidate,
+					inferChunks(getTransactions(transactionList, sampled), inferenceAlgorithm, probs, candidate));
+			final double lowerBound = CandidateScreen.getLowerBound(transactions, candidate, cacheCount, sample,
+					CandidateScreen.getStratumSizes(supported, transactionList), random);
+			sample.forEach(TransactionOverlay::rollback);
+			final boolean rejected = lowerBound >= transactions.getAverageCost();
+			transactions.countScreenedCandidate(rejected);
+			if (rejected)
+				return new CandidateEvaluation(new ArrayList<>(), new CoveringCounts(), cacheCount, lowerBound, 0.);
+		}
+
+		// E-step (overlaying candidate on transactions that support it,
+		// inferring once per projection class if possible)
+		final ProjectionClasses classes = transactions.getProjectionClasses();
+		final List<TransactionOverlay> overlays;
+		if (classes == null) {
+			overlays = getOverlays(transactionList, supported, candidate,
+					inferChunks(getTransactions(transactionList, supported), inferenceAlgorithm, probs, candidate));
+		} else {
+			// Supporting transactions in a class also agree on the candidate
+			final HashMap<Integer, Integer> representatives = new HashMap<>();
+			for (final int tid : supported)
+				representatives.putIfAbsent(classes.getClass(tid), tid);
+			final int[] representativeTids = representatives.values().stream().mapToInt(Integer::intValue).toArray();
+			final Map<Integer, long[]> classCoverings = getClassCoverings(classes, representativeTids,
+					inferChunks(getTransactions(transactionList, representativeTids), inferenceAlgorithm, probs,
+							candidate));
+			overlays = Arrays.stream(supported).parallel().mapToObj(tid -> {
+				final int classId = classes.getClass(tid);
+				final TransactionOverlay overlay = transactionList.get(tid).overlay(candidate);
+				final int representative = representatives.get(classId);
+				if (tid == representative)
+					overlay.setCovering(classCoverings.get(classId));
+				else
+					overlay.setCovering(classes.shareCovering(transactionList.get(representative),
+							classCoverings.get(classId), overlay.getTransaction(), probs, candidate));
+				return overlay;
+			}).collect(Collectors.toList());
+		}
+		final CoveringCounts coveringChanges = countCoveringChanges(overlays.parallelStream(), probs);
+
+		// M-step and average cost, updating the changed counts only
+		final double averageCost = transactions.getAverageCost()
+				+ getCostChange(transactions, coveringChanges.counts, candidate, cacheCount) / noTransactions;
 
 		// Get candidate prob
-		Double prob = newItemsets.get(candidate);
-		if (prob == null)
-			prob = 0.;
+		final double prob = getCount(coveringChanges.counts, candidate.getId()) / noTransactions;
 
-		return new Tuple2<Double, Double>(averageCost, prob);
+		return new CandidateEvaluation(overlays, coveringChanges, cacheCount, averageCost, prob);
 	}
 
-	/** Add accepted candidate itemset to cache */
+	/** Add accepted candidate itemset to cache (committing its overlays) */
 	static Map<Itemset, Double> addAcceptedCandidateCache(final TransactionDatabase transactions,
-			final Itemset candidate, final double prob) {
+			final Itemset candidate, final CandidateEvaluation evaluation) {
 		final double noTransactions = transactions.size();
+		final ItemsetProbabilities probs = transactions.getProbabilities().with(candidate, evaluation.prob);
+
+		// Cached E-step (committing candidate to transactions that support it)
+		evaluation.overlays.parallelStream().forEach(o -> o.commit(probs));
+		final CoveringCounts coveringWithCounts = new CoveringCounts();
+		coveringWithCounts.addAll(transactions.getCoveringCounts());
+		coveringWithCounts.addAll(evaluation.coveringChanges);
+
+		// M-step (caches drop zero probability itemsets lazily)
+		final ItemsetProbabilities newProbs = probs.next(coveringWithCounts.getProbabilities(noTransactions));
+		transactions.setProbabilities(newProbs);
+		transactions.setCoveringCounts(coveringWithCounts.counts);
+
+		// Split the projection classes on the candidate's items
+		if (transactions.getProjectionClasses() != null)
+			transactions.getProjectionClasses().addItems(candidate, transactions.getTidsetIndex());
 
-		// Cached E-step (adding candidate to transactions that support it)
-		final Map<Itemset, Long> coveringWithCounts = transactions.getTransactionList().parallelStream().map(t -> {
-			if (t.contains(candidate)) {
-				t.addItemsetCache(candidate, prob);
-				final HashSet<Itemset> covering = t.getTempCachedCovering();
-				t.setCachedCovering(covering);
-				return covering;
+		// Update cache counts
+		final int[] cacheCounts = transactions.getCacheCounts();
+		final int[] newCacheCounts = Arrays.copyOf(cacheCounts, Math.max(cacheCounts.length, candidate.getId() + 1));
+		newCacheCounts[candidate.getId()] = evaluation.cacheCount;
+		transactions.setCacheCounts(newCacheCounts);
+
+		return newProbs.toMap();
+	}
+
+	/**
+	 * Get the total cost of an itemset over all transactions, given the number
+	 * of coverings it is in and the number of transaction caches it is in.
+	 * Its probability is then coveringCount / noTransactions, and each
+	 * covering contributes -log(p) and each other cache -log(1 - p).
+	 */
+	static double getCost(final int coveringCount, final int cacheCount, final double noTransactions) {
+		if (coveringCount == 0) // zero probability itemsets are skipped
+			return 0;
+		final double prob = coveringCount / noTransactions;
+		double cost = coveringCount * -Math.log(prob);
+		if (cacheCount > coveringCount)
+			cost += (cacheCount - coveringCount) * -Math.log(1 - prob);
+		return cost;
+	}
+
+	/**
+	 * Get the change in total cost when the candidate is cached by cacheCount
+	 * (weighted) transactions and the covering counts change by the given
+	 * changes indexed by itemset ID
+	 */
+	static double getCostChange(final TransactionDatabase transactions, final int[] coveringChanges,
+			final Itemset candidate, final int cacheCount) {
+		final double noTransactions = transactions.size();
+		final int[] coveringCounts = transactions.getCoveringCounts();
+		final int[] cacheCounts = transactions.getCacheCounts();
+		double costChange = getCost(getCount(coveringChanges, candidate.getId()), cacheCount, noTransactions);
+		for (int id = 0; id < coveringChanges.length; id++) {
+			if (coveringChanges[id] != 0 && id != candidate.getId()) {
+				final int count = getCount(coveringCounts, id);
+				final int setCacheCount = getCount(cacheCounts, id);
+				costChange += getCost(count + coveringChanges[id], setCacheCount, noTransactions)
+						- getCost(count, setCacheCount, noTransactions);
 			}
+		}
+		return costChange;
+	}
+
+	/** Get the count at the given index (zero beyond the end) */
+	static int getCount(final int[] counts, final int id) {
+		return id < counts.length ? counts[id] : 0;
+	}
+
+	/**
+	 * Infer the coverings of the given transactions (as if the candidate, if not null, was also cached) in parallel
+	 * chunks of {@link InferenceAlgorithms#CHUNK_SIZE} transactions, all sharing the probabilities
+	 */
+	static long[][] inferChunks(final List<Transaction> transactions, final InferenceAlgorithm inferenceAlgorithm,
+			final ItemsetProbabilities probs, final Itemset candidate) {
+		final long[][] coverings = new long[transactions.size()][];
+		final int chunkSize = InferenceAlgorithms.CHUNK_SIZE;
+		IntStream.range(0, (transactions.size() + chunkSize - 1) / chunkSize).parallel().forEach(c -> {
+			final int from = c * chunkSize;
+			final int to = Math.min(transactions.size(), from + chunkSize);
+			inferenceAlgorithm.inferChunk(transactions.subList(from, to), probs, candidate, coverings, from);
+		});
+		return coverings;
+	}
+
+	/** Get the transactions with the given tids */
+	private static List<Transaction> getTransactions(final List<Transaction> transactionList, final int[] tids) {
+		return Arrays.stream(tids).mapToObj(transactionList::get).collect(Collectors.toList());
+	}
+
+	/** Overlay the candidate on the transactions with the given tids and coverings */
+	private static List<TransactionOverlay> getOverlays(final List<Transaction> transactionList, final int[] tids,
+			final Itemset candidate, final long[][] coverings) {
+		return IntStream.range(0, tids.length).parallel().mapToObj(i -> {
+			final TransactionOverlay overlay = transactionList.get(tids[i]).overlay(candidate);
+			overlay.setCovering(coverings[i]);
+			return overlay;
+		}).collect(Collectors.toList());
+	}
+
+	/** Get the coverings of the classes of the given representative tids */
+	private static Map<Integer, long[]> getClassCoverings(final ProjectionClasses classes, final int[] representatives,
+			final long[][] coverings) {
+		final Map<Integer, long[]> classCoverings = new HashMap<>();
+		for (int i = 0; i < representatives.length; i++)
+			classCoverings.put(classes.getClass(representatives[i]), coverings[i]);
+		return classCoverings;
+	}
+
+	/**
+	 * Get the cached coverings of the transactions (in order), first dropping
+	 * zero probability itemsets from their caches so that the covering indices
+	 * stay valid for as long as the probabilities have the same zero itemsets
+	 * (coverings are never modified in place, so they are not copied)
+	 */
+	static List<long[]> getCachedCoverings(final TransactionDatabase transactions) {
+		final ItemsetProbabilities probs = transactions.getProbabilities();
+		return transactions.getTransactionList().parallelStream().map(t -> {
+			t.getItemsetCache(probs);
 			return t.getCachedCovering();
-		}).flatMap(HashSet::stream).collect(groupingBy(identity(), counting()));
+		}).collect(Collectors.toList());
+	}
+
+	/** Set the cached coverings of the transactions to the given ones */
+	static void setCachedCoverings(final TransactionDatabase transactions, final List<long[]> coverings) {
+		final List<Transaction> transactionList = transactions.getTransactionList();
+		IntStream.range(0, transactionList.size()).parallel()
+				.forEach(tid -> transactionList.get(tid).setCachedCovering(coverings.get(tid)));
+	}
+
+	/**
+	 * Count the (weighted) number of cached coverings each (interned) itemset
+	 * is in
+	 */
+	private static CoveringCounts countCoverings(final Stream<Transaction> transactions,
+			final ItemsetProbabilities probs) {
+		return transactions.collect(CoveringCounts::new,
+				(counts, t) -> counts.add(t, t.getCachedCovering(), probs, null, t.getWeight()),
+				CoveringCounts::addAll);
+	}
+
+	/**
+	 * Count the (weighted) change in the number of coverings each (interned)
+	 * itemset is in when switching from the committed to the overlay coverings
+	 */
+	private static CoveringCounts countCoveringChanges(final Stream<TransactionOverlay> overlays,
+			final ItemsetProbabilities probs) {
+		return overlays.collect(CoveringCounts::new, (counts, o) -> {
+			final Transaction t = o.getTransaction();
+			counts.add(t, o.getCommittedCovering(), probs, null, -t.getWeight());
+			counts.add(t, o.getCovering(), probs, o.getCandidate(), t.getWeight());
+		}, CoveringCounts::addAll);
+	}
+
+	/**
+	 * Structural EM-step result for a candidate, committed to the cache if
+	 * accepted and rolled back otherwise
+	 */
+	static class CandidateEvaluation {
+
+		/** Overlays of the transactions supporting the candidate */
+		final List<TransactionOverlay> overlays;
+
+		/** Change in covering counts if the overlays are committed */
+		final CoveringCounts coveringChanges;
+
+		/** Weighted number of transactions supporting the candidate */
+		final int cacheCount;
+
+		final double averageCost;
+		final double prob;
+
+		CandidateEvaluation(final List<TransactionOverlay> overlays, final CoveringCounts coveringChanges,
+				final int cacheCount, final double averageCost, final double prob) {
+			this.overlays = overlays;
+			this.coveringChanges = coveringChanges;
+			this.cacheCount = cacheCount;
+			this.averageCost = averageCost;
+			this.prob = prob;
+		}
+
+		/** Discard the candidate's overlays */
+		void rollback() {
+			overlays.forEach(TransactionOverlay::rollback);
+		}
+
+	}
+
+	/** Covering counts indexed by itemset ID */
+	private static class CoveringCounts {
+
+		/** Counts (only as long as the largest ID counted so far) */
+		private int[] counts = new int[0];
+
+		/**
+		 * Count each itemset in the given covering of the transaction (with
+		 * the candidate, if not null) weight times
+		 */
+		void add(final Transaction transaction, final long[] covering, final ItemsetProbabilities probs,
+				final Itemset candidate, final int weight) {
+			for (int i = SetKernels.nextSetBit(covering, 0); i >= 0; i = SetKernels.nextSetBit(covering, i + 1)) {
+				final int id = transaction.getItemset(i, probs, candidate).getId();
+				if (id >= counts.length)
+					counts = Arrays.copyOf(counts, Math.max(id + 1, 2 * counts.length));
+				counts[id] += weight;
+			}
+		}
+
+		/** Add the given counts to these counts */
+		void addAll(final CoveringCounts other) {
+			addAll(other.counts);
+		}
 
-		// M-step
-		final Map<Itemset, Double> newItemsets = coveringWithCounts.entrySet().parallelStream()
-				.collect(Collectors.toMap(Map.Entry::getKey, v -> v.getValue() / noTransactions));
+		/** Add the given counts indexed by itemset ID to these counts */
+		void addAll(final int[] otherCounts) {
+			if (otherCounts.length > counts.length)
+				counts = Arrays.copyOf(counts, otherCounts.length);
+			for (int id = 0; id < otherCounts.length; id++)
+				counts[id] += otherCounts[id];
+		}
 
-		// Update cached itemsets
-		transactions.getTransactionList().parallelStream().forEach(t -> t.updateCachedItemsets(newItemsets));
+		/** Get the relative counts indexed by itemset ID */
+		double[] getProbabilities(final double noTransactions) {
+			final double[] probs = new double[counts.length];
+			for (int id = 0; id < counts.length; id++)
+				probs[id] = counts[id] / noTransactions;
+			return probs;
+		}
 
-		return newItemsets;
 	}
 
 	private EMStep() {
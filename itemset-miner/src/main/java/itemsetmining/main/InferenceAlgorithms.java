@@ -1,74 +1,320 @@
 package itemsetmining.main;
 
 import itemsetmining.itemset.Itemset;
+import itemsetmining.itemset.ItemsetProbabilities;
+import itemsetmining.transaction.ItemsetCache;
 import itemsetmining.transaction.Transaction;
 
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map.Entry;
-import java.util.Random;
+import java.util.Map;
+import java.util.TreeMap;
 
 /** Container class for Inference Algorithms */
 public class InferenceAlgorithms {
 
-	/** Interface for the different inference algorithms */
+	/**
+	 * Interface for the different inference algorithms. Coverings are
+	 * bitmasks over the transaction's itemset indices (see
+	 * {@link Transaction#getItemset}). An inferred covering that is the same
+	 * as the transaction's cached covering is returned as that array, so
+	 * coverings must not be modified.
+	 */
 	public interface InferenceAlgorithm {
-		public HashSet<Itemset> infer(final Transaction transaction);
+		public default long[] infer(final Transaction transaction,
+				final ItemsetProbabilities probabilities) {
+			return infer(transaction, probabilities, null);
+		}
+
+		/**
+		 * Infer covering as if the given candidate (if not null) was also
+		 * cached, without modifying the transaction (so concurrent calls for
+		 * different candidates are safe)
+		 */
+		public long[] infer(final Transaction transaction,
+				final ItemsetProbabilities probabilities, final Itemset candidate);
+
+		/**
+		 * Infer the coverings of a chunk of transactions (as for
+		 * {@link #infer(Transaction, ItemsetProbabilities, Itemset)}), storing
+		 * that of the k-th transaction in coverings[offset + k]. The
+		 * probabilities (with their tabulated log costs) and the candidate are
+		 * shared read-only by the whole chunk, while implementations reuse one
+		 * scratch state across it, so a chunk must only be inferred by one
+		 * thread.
+		 */
+		public default void inferChunk(final List<Transaction> chunk,
+				final ItemsetProbabilities probabilities,
+				final Itemset candidate, final long[][] coverings,
+				final int offset) {
+			for (int k = 0; k < chunk.size(); k++)
+				coverings[offset + k] = infer(chunk.get(k), probabilities,
+						candidate);
+		}
 	}
 
+	/** Number of transactions inferred per chunk */
+	public static final int CHUNK_SIZE = 256;
+
 	/**
 	 * Infer ML parameters to explain transaction using greedy algorithm and
 	 * store in covering.
 	 * <p>
 	 * This is an O(log(n))-approximation algorithm where n is the number of
 	 * elements in the transaction.
+	 * <p>
+	 * The itemsets are kept in a heap keyed by their cost per uncovered item.
+	 * As covering items can only increase these costs, the keys are lower
+	 * bounds and only the top itemset needs its cost recomputed each time:
+	 * once it is up to date, it is the itemset with least cost per item (and
+	 * lowest index among ties) that a full scan would choose.
+	 * <p>
+	 * For transactions of at most 64 items, the itemsets are remapped to
+	 * bitmasks of their positions within the transaction so that uncovered
+	 * items are counted with {@link Long#bitCount}.
+	 * <p>
+	 * The scratch arrays, heap, covered items and covering are kept per thread
+	 * and reset (rather than reallocated) between transactions, so only a
+	 * covering that differs from the cached one is allocated.
 	 */
 	public static class InferGreedy implements InferenceAlgorithm, Serializable {
 		private static final long serialVersionUID = 9173178089235828142L;
 
-		@Override
-		public HashSet<Itemset> infer(final Transaction transaction) {
-
-			final HashSet<Itemset> covering = new HashSet<>();
-			final int transactionSize = transaction.size();
-			final Transaction coveredItems = new Transaction();
+		/** Per-thread scratch arrays */
+		private static final ThreadLocal<Scratch> scratches = ThreadLocal
+				.withInitial(Scratch::new);
 
-			final HashMap<Itemset, Double> cachedItemsets = transaction
-					.getCachedItemsets();
-			while (coveredItems.size() != transactionSize) {
+		@Override
+		public long[] infer(final Transaction transaction,
+				final ItemsetProbabilities probabilities, final Itemset candidate) {
+			return infer(transaction, probabilities, candidate,
+					scratches.get());
+		}
 
-				double minCostPerItem = Double.POSITIVE_INFINITY;
-				Itemset bestSet = null;
+		@Override
+		public void inferChunk(final List<Transaction> chunk,
+				final ItemsetProbabilities probabilities,
+				final Itemset candidate, final long[][] coverings,
+				final int offset) {
+			final Scratch scratch = scratches.get();
+			for (int k = 0; k < chunk.size(); k++)
+				coverings[offset + k] = infer(chunk.get(k), probabilities,
+						candidate, scratch);
+		}
 
-				for (final Entry<Itemset, Double> entry : cachedItemsets
-						.entrySet()) {
+		/** Infer covering using the given scratch arrays */
+		private long[] infer(final Transaction transaction,
+				final ItemsetProbabilities probabilities,
+				final Itemset candidate, final Scratch scratch) {
 
-					final int notCovered = coveredItems.countUnion(entry
-							.getKey()) - coveredItems.size();
+			final int transactionSize = transaction.size();
 
-					final double cost = -Math.log(entry.getValue());
-					final double costPerItem = cost / notCovered;
+			final ItemsetCache cachedItemsets = transaction
+					.getItemsetCache(probabilities);
+			final int noItemsets = getNoItemsets(transaction, cachedItemsets,
+					candidate);
+			final int noCoveringWords = (noItemsets + 63) >>> 6;
+			final long[] covering = scratch.getCovering(noCoveringWords);
+
+			// Build heap of itemsets that cover some item
+			scratch.ensureCapacity(noItemsets, transactionSize);
+			final Itemset[] sets = scratch.sets;
+			getItemsets(transaction, cachedItemsets, probabilities, candidate,
+					sets);
+			final double[] costs = scratch.costs;
+			final int[] notCovered = scratch.notCovered;
+			final CostHeap heap = scratch.heap;
+			heap.clear();
+			for (int i = 0; i < noItemsets; i++) {
+				costs[i] = probabilities.getCoveringCost(sets[i]);
+				notCovered[i] = sets[i].size();
+				if (notCovered[i] > 0)
+					heap.add(i, costs[i] / notCovered[i]);
+			}
 
-					if (costPerItem < minCostPerItem) {
-						minCostPerItem = costPerItem;
-						bestSet = entry.getKey();
+			// Remap itemsets to bitmasks for short transactions if possible,
+			// otherwise mark covered items in a bitset
+			final int[] items = scratch.items;
+			transaction.getItems(items);
+			final long[] masks = transactionSize <= Long.SIZE
+					&& getMasks(items, transactionSize, sets, noItemsets,
+							scratch.masks) ? scratch.masks : null;
+			long coveredMask = 0;
+			final int noWords = transactionSize > 0
+					? (items[transactionSize - 1] >>> 6) + 1 : 0;
+			final long[] coveredItems = masks == null ? scratch
+					.getCoveredItems(noWords) : null;
+
+			int noCovered = 0;
+			while (noCovered != transactionSize) {
+
+				int bestSet = -1;
+
+				while (!heap.isEmpty()) {
+					final int i = heap.peek();
+					final int nowNotCovered = masks != null ? Long
+							.bitCount(masks[i] & ~coveredMask) : sets[i]
+							.countNotIn(coveredItems);
+
+					// Up to date so least cost per item (if finite)
+					if (nowNotCovered == notCovered[i]) {
+						if (heap.peekKey() < Double.POSITIVE_INFINITY) {
+							heap.poll();
+							bestSet = i;
+							noCovered += nowNotCovered;
+							if (masks != null)
+								coveredMask |= masks[i];
+							else
+								sets[i].setBits(coveredItems);
+						}
+						break;
 					}
 
+					// Otherwise update its cost per item
+					heap.poll();
+					notCovered[i] = nowNotCovered;
+					if (nowNotCovered > 0)
+						heap.add(i, costs[i] / nowNotCovered);
 				}
 
-				if (bestSet != null) {
-					covering.add(bestSet);
-					coveredItems.add(bestSet);
+				if (bestSet >= 0) {
+					covering[bestSet >>> 6] |= 1L << bestSet;
 				} else { // Allow incomplete coverings
 					break;
 				}
 
 			}
+			if (coveredItems != null)
+				Arrays.fill(coveredItems, 0, noWords, 0);
+			return getCovering(transaction, covering, noCoveringWords);
+		}
+
+		/** Scratch arrays for inferring transactions */
+		private static class Scratch extends CoveringScratch {
+			private Itemset[] sets = new Itemset[0];
+			private double[] costs = new double[0];
+			private int[] notCovered = new int[0];
+			private long[] masks = new long[0];
+			private CostHeap heap = new CostHeap(0);
+			private int[] items = new int[0];
+			private long[] coveredItems = new long[0];
+
+			/** Grow the arrays to hold the given no. itemsets and items */
+			void ensureCapacity(final int noItemsets, final int noItems) {
+				if (sets.length < noItemsets) {
+					sets = new Itemset[noItemsets];
+					costs = new double[noItemsets];
+					notCovered = new int[noItemsets];
+					masks = new long[noItemsets];
+					heap = new CostHeap(noItemsets);
+				}
+				if (items.length < noItems)
+					items = new int[noItems];
+			}
+
+			/**
+			 * Get the (cleared) bitset of covered items, growing it to at
+			 * least the given no. words
+			 */
+			long[] getCoveredItems(final int noWords) {
+				if (coveredItems.length < noWords)
+					coveredItems = new long[noWords];
+				return coveredItems;
+			}
+		}
+
+	}
+
+	/** Scratch covering (kept per thread by each algorithm) */
+	private static class CoveringScratch {
+		private long[] covering = new long[0];
+
+		/**
+		 * Get the cleared covering, growing it to at least the given no.
+		 * words
+		 */
+		long[] getCovering(final int noWords) {
+			if (covering.length < noWords)
+				covering = new long[noWords];
+			else
+				Arrays.fill(covering, 0, noWords, 0);
 			return covering;
 		}
+	}
+
+	/**
+	 * Binary min-heap of itemset indices keyed by cost per item, with ties
+	 * broken by lowest index
+	 */
+	private static class CostHeap {
+
+		private final int[] indices;
+		private final double[] keys;
+		private int size = 0;
+
+		CostHeap(final int capacity) {
+			indices = new int[capacity];
+			keys = new double[capacity];
+		}
+
+		boolean isEmpty() {
+			return size == 0;
+		}
+
+		void clear() {
+			size = 0;
+		}
+
+		int peek() {
+			return indices[0];
+		}
+
+		double peekKey() {
+			return keys[0];
+		}
+
+		/** Add the given index (not already in the heap) */
+		void add(final int index, final double key) {
+			int pos = size++;
+			while (pos > 0) {
+				final int parent = (pos - 1) / 2;
+				if (!less(key, index, keys[parent], indices[parent]))
+					break;
+				indices[pos] = indices[parent];
+				keys[pos] = keys[parent];
+				pos = parent;
+			}
+			indices[pos] = index;
+			keys[pos] = key;
+		}
+
+		/** Remove the top index */
+		void poll() {
+			final int index = indices[--size];
+			final double key = keys[size];
+			int pos = 0;
+			while (2 * pos + 1 < size) {
+				int child = 2 * pos + 1;
+				if (child + 1 < size
+						&& less(keys[child + 1], indices[child + 1],
+								keys[child], indices[child]))
+					child++;
+				if (!less(keys[child], indices[child], key, index))
+					break;
+				indices[pos] = indices[child];
+				keys[pos] = keys[child];
+				pos = child;
+			}
+			indices[pos] = index;
+			keys[pos] = key;
+		}
+
+		private static boolean less(final double key1, final int index1,
+				final double key2, final int index2) {
+			return key1 < key2 || (!(key1 > key2) && index1 < index2);
+		}
 
 	}
 
@@ -79,70 +325,641 @@ public class InferenceAlgorithms {
 	 * This is an O(mn) run-time f-approximation algorithm, where m is the no.
 	 * elements to cover, n is the number of sets and f is the frequency of the
 	 * most frequent element in the sets.
+	 * <p>
+	 * Each picked element only visits the itemsets in its inverted list. The
+	 * item positions of the itemsets and the inverted lists are flattened into
+	 * per-thread scratch arrays which, as for {@link InferGreedy}, are reset
+	 * rather than reallocated between transactions.
 	 */
-	public static class InferPrimalDual implements InferenceAlgorithm {
+	public static class InferPrimalDual implements InferenceAlgorithm,
+			Serializable {
+		private static final long serialVersionUID = -2563817702941318451L;
+
+		/** Per-thread scratch arrays */
+		private static final ThreadLocal<Scratch> scratches = ThreadLocal
+				.withInitial(Scratch::new);
+
+		/** Seed for the random element picks */
+		private final long seed;
+
+		/** Constructor (with a fixed seed) */
+		public InferPrimalDual() {
+			this(0);
+		}
+
+		/**
+		 * Constructor
+		 *
+		 * @param seed
+		 *            seed for the random element picks, which are seeded per
+		 *            transaction so that coverings do not depend on the thread
+		 *            or order they are inferred in
+		 */
+		public InferPrimalDual(final long seed) {
+			this.seed = seed;
+		}
 
 		@Override
-		public HashSet<Itemset> infer(final Transaction transaction) {
+		public long[] infer(final Transaction transaction,
+				final ItemsetProbabilities probabilities, final Itemset candidate) {
+			return infer(transaction, probabilities, candidate,
+					scratches.get());
+		}
 
-			final HashSet<Itemset> covering = new HashSet<>();
-			final Random rand = new Random();
-			final List<Integer> notCoveredItems = new ArrayList<>(transaction);
+		@Override
+		public void inferChunk(final List<Transaction> chunk,
+				final ItemsetProbabilities probabilities,
+				final Itemset candidate, final long[][] coverings,
+				final int offset) {
+			final Scratch scratch = scratches.get();
+			for (int k = 0; k < chunk.size(); k++)
+				coverings[offset + k] = infer(chunk.get(k), probabilities,
+						candidate, scratch);
+		}
 
-			final HashMap<Itemset, Double> cachedItemsets = transaction
-					.getCachedItemsets();
+		/** Infer covering using the given scratch arrays */
+		private long[] infer(final Transaction transaction,
+				final ItemsetProbabilities probabilities,
+				final Itemset candidate, final Scratch scratch) {
+
+			final int transactionSize = transaction.size();
+			scratch.setSeed(seed + transaction.hashCode());
+
+			final ItemsetCache cachedItemsets = transaction
+					.getItemsetCache(probabilities);
+			final int noItemsets = getNoItemsets(transaction, cachedItemsets,
+					candidate);
+			final int noCoveringWords = (noItemsets + 63) >>> 6;
+			final long[] covering = scratch.getCovering(noCoveringWords);
+
+			// Calculate costs and positions of itemset items in transaction
+			scratch.ensureCapacity(noItemsets, transactionSize);
+			final Itemset[] sets = scratch.sets;
+			getItemsets(transaction, cachedItemsets, probabilities, candidate,
+					sets);
+			final int[] items = scratch.items;
+			transaction.getItems(items);
+			final double[] costs = scratch.costs;
+			final int[] setStarts = scratch.setStarts;
+			final int[] noContaining = scratch.containingEnds;
+			Arrays.fill(noContaining, 0, transactionSize, 0);
+			int[] setPositions = scratch.setPositions;
+			int noPositions = 0;
+			for (int i = 0; i < noItemsets; i++) {
+				costs[i] = probabilities.getCoveringCost(sets[i]);
+				setStarts[i] = noPositions;
+				final int setSize = sets[i].size();
+				final int[] setItems = scratch.getSetItems(setSize);
+				setPositions = scratch.getSetPositions(noPositions + setSize);
+				sets[i].getItems(setItems);
+				for (int k = 0; k < setSize; k++) {
+					final int pos = Arrays.binarySearch(items, 0,
+							transactionSize, setItems[k]);
+					if (pos >= 0) {
+						setPositions[noPositions++] = pos;
+						noContaining[pos]++;
+					}
+				}
+			}
+			setStarts[noItemsets] = noPositions;
+
+			// Build inverted lists of the itemsets containing each item
+			final int[] containingStarts = scratch.containingStarts;
+			final int[] containingEnds = noContaining;
+			final int[] containing = scratch.getContaining(noPositions);
+			for (int pos = 0, start = 0; pos < transactionSize; pos++) {
+				containingStarts[pos] = start;
+				start += noContaining[pos];
+				containingEnds[pos] = containingStarts[pos];
+			}
+			for (int i = 0; i < noItemsets; i++) {
+				for (int k = setStarts[i]; k < setStarts[i + 1]; k++)
+					containing[containingEnds[setPositions[k]]++] = i;
+			}
 
-			// Calculate costs
-			final HashMap<Itemset, Double> costs = new HashMap<>();
-			for (final Entry<Itemset, Double> entry : cachedItemsets.entrySet()) {
-				costs.put(entry.getKey(), -Math.log(entry.getValue()));
+			// Uncovered item positions (with the index of each in the array)
+			final int[] notCovered = scratch.notCovered;
+			final int[] notCoveredIndex = scratch.notCoveredIndex;
+			for (int pos = 0; pos < transactionSize; pos++) {
+				notCovered[pos] = pos;
+				notCoveredIndex[pos] = pos;
 			}
+			int noNotCovered = transactionSize;
 
-			while (!notCoveredItems.isEmpty()) {
+			while (noNotCovered > 0) {
 
 				double minCost = Double.POSITIVE_INFINITY;
-				Itemset bestSet = null;
+				int bestSet = -1;
 
 				// Pick random element
-				final int index = rand.nextInt(notCoveredItems.size());
-				final Integer element = notCoveredItems.get(index);
+				final int element = notCovered[scratch.nextInt(noNotCovered)];
 
 				// Increase dual of element as much as possible
-				for (final Entry<Itemset, Double> entry : costs.entrySet()) {
-
-					if (entry.getKey().contains(element)) {
-
-						final double cost = entry.getValue();
-						if (cost < minCost) {
-							minCost = cost;
-							bestSet = entry.getKey();
-						}
-
+				for (int k = containingStarts[element]; k < containingEnds[element];
+						k++) {
+					final int i = containing[k];
+					if (costs[i] < minCost) {
+						minCost = costs[i];
+						bestSet = i;
 					}
 				}
 
-				if (bestSet != null) {
-					covering.add(bestSet);
-					notCoveredItems.removeAll(bestSet);
+				if (bestSet >= 0) {
+					covering[bestSet >>> 6] |= 1L << bestSet;
+					for (int k = setStarts[bestSet]; k < setStarts[bestSet + 1];
+							k++) {
+						final int pos = setPositions[k];
+						final int index = notCoveredIndex[pos];
+						if (index < noNotCovered && notCovered[index] == pos) {
+							final int last = notCovered[--noNotCovered];
+							notCovered[index] = last;
+							notCoveredIndex[last] = index;
+							notCovered[noNotCovered] = pos;
+							notCoveredIndex[pos] = noNotCovered;
+						}
+					}
 				} else { // Allow incomplete coverings
 					break;
 				}
 
 				// Make dual of element binding
-				for (final Entry<Itemset, Double> entry : costs.entrySet()) {
-					final Itemset set = entry.getKey();
-					if (set.contains(element)) {
-						final double cost = entry.getValue();
-						costs.put(set, cost - minCost);
+				for (int k = containingStarts[element]; k < containingEnds[element];
+						k++)
+					costs[containing[k]] -= minCost;
+
+			}
+			return getCovering(transaction, covering, noCoveringWords);
+		}
+
+		/** Scratch arrays for inferring transactions */
+		private static class Scratch extends CoveringScratch {
+			private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+			private Itemset[] sets = new Itemset[0];
+			private double[] costs = new double[0];
+			private int[] setStarts = new int[1];
+			private int[] items = new int[0];
+			private int[] containingStarts = new int[0];
+			private int[] containingEnds = new int[0];
+			private int[] notCovered = new int[0];
+			private int[] notCoveredIndex = new int[0];
+			private int[] setItems = new int[0];
+			private int[] setPositions = new int[0];
+			private int[] containing = new int[0];
+
+			/** State of the random element picks */
+			private long randomSeed;
+
+			/** Grow the arrays to hold the given no. itemsets and items */
+			void ensureCapacity(final int noItemsets, final int noItems) {
+				if (sets.length < noItemsets) {
+					sets = new Itemset[noItemsets];
+					costs = new double[noItemsets];
+					setStarts = new int[noItemsets + 1];
+				}
+				if (items.length < noItems) {
+					items = new int[noItems];
+					containingStarts = new int[noItems];
+					containingEnds = new int[noItems];
+					notCovered = new int[noItems];
+					notCoveredIndex = new int[noItems];
+				}
+			}
+
+			/** Get the array for the items of an itemset of the given size */
+			int[] getSetItems(final int setSize) {
+				if (setItems.length < setSize)
+					setItems = new int[setSize];
+				return setItems;
+			}
+
+			/**
+			 * Get the (flattened) item positions of the itemsets, growing
+			 * them to at least the given length (keeping their contents)
+			 */
+			int[] getSetPositions(final int length) {
+				if (setPositions.length < length)
+					setPositions = Arrays.copyOf(setPositions,
+							Math.max(length, 2 * setPositions.length));
+				return setPositions;
+			}
+
+			/**
+			 * Get the (flattened) inverted lists, growing them to at least the
+			 * given length
+			 */
+			int[] getContaining(final int length) {
+				if (containing.length < length)
+					containing = new int[Math.max(length,
+							2 * containing.length)];
+				return containing;
+			}
+
+			/** Seed the random element picks */
+			void setSeed(final long seed) {
+				randomSeed = seed;
+			}
+
+			/**
+			 * Get the next random int in [0, bound), the same as
+			 * {@link java.util.SplittableRandom#nextInt(int)} with the seed
+			 */
+			int nextInt(final int bound) {
+				int r = nextInt();
+				final int m = bound - 1;
+				if ((bound & m) == 0)
+					return r & m;
+				int u = r >>> 1;
+				while (u + m - (r = u % bound) < 0)
+					u = nextInt() >>> 1;
+				return r;
+			}
+
+			private int nextInt() {
+				randomSeed += GOLDEN_GAMMA;
+				final long z = (randomSeed ^ (randomSeed >>> 33))
+						* 0x62a9d9ed799705f5L;
+				return (int) (((z ^ (z >>> 28)) * 0xcb24d0a5c88c35b3L) >>> 32);
+			}
+		}
+
+	}
+
+	/**
+	 * Infer the exact least cost covering of a small transaction by dynamic
+	 * programming over the subsets of its items.
+	 * <p>
+	 * The cost of a transaction is that of the itemsets in its covering plus
+	 * that of the cached itemsets that are not, so adding an itemset of
+	 * probability p to a covering changes the cost by log((1 - p) / p).
+	 * Itemsets that lower the cost are always added and the remaining items
+	 * are then covered at least cost. This takes O(2^m n) time for m items and
+	 * n itemsets, so transactions of more than {@link #MAX_ITEMS} items (or
+	 * with itemsets outside the transaction) are covered greedily instead.
+	 * <p>
+	 * As for {@link InferGreedy}, the scratch arrays (including the table over
+	 * subsets of items and the covering) are kept per thread and only grown
+	 * when needed.
+	 */
+	public static class InferExact implements InferenceAlgorithm, Serializable {
+		private static final long serialVersionUID = 5839247102284015329L;
+
+		/** Maximum number of items to solve exactly */
+		public static final int MAX_ITEMS = 16;
+
+		/** Per-thread scratch arrays */
+		private static final ThreadLocal<Scratch> scratches = ThreadLocal
+				.withInitial(Scratch::new);
+
+		private final InferGreedy greedy = new InferGreedy();
+
+		@Override
+		public long[] infer(final Transaction transaction,
+				final ItemsetProbabilities probabilities, final Itemset candidate) {
+			return infer(transaction, probabilities, candidate,
+					scratches.get());
+		}
+
+		@Override
+		public void inferChunk(final List<Transaction> chunk,
+				final ItemsetProbabilities probabilities,
+				final Itemset candidate, final long[][] coverings,
+				final int offset) {
+			final Scratch scratch = scratches.get();
+			for (int k = 0; k < chunk.size(); k++)
+				coverings[offset + k] = infer(chunk.get(k), probabilities,
+						candidate, scratch);
+		}
+
+		/** Infer covering using the given scratch arrays */
+		private long[] infer(final Transaction transaction,
+				final ItemsetProbabilities probabilities,
+				final Itemset candidate, final Scratch scratch) {
+			if (transaction.size() > MAX_ITEMS)
+				return greedy.infer(transaction, probabilities, candidate);
+
+			final ItemsetCache cachedItemsets = transaction
+					.getItemsetCache(probabilities);
+			final int noItemsets = getNoItemsets(transaction, cachedItemsets,
+					candidate);
+			final int transactionSize = transaction.size();
+			scratch.ensureCapacity(noItemsets, transactionSize);
+			final Itemset[] sets = scratch.sets;
+			getItemsets(transaction, cachedItemsets, probabilities, candidate,
+					sets);
+			final int[] items = scratch.items;
+			transaction.getItems(items);
+			final long[] masks = scratch.masks;
+			if (!getMasks(items, transactionSize, sets, noItemsets, masks))
+				return greedy.infer(transaction, probabilities, candidate);
+
+			// Add itemsets that lower the cost, find those that could cover
+			final int noCoveringWords = (noItemsets + 63) >>> 6;
+			final long[] covering = scratch.getCovering(noCoveringWords);
+			final double[] costChanges = scratch.costChanges;
+			int start = 0;
+			int coverable = 0;
+			for (int i = 0; i < noItemsets; i++) {
+				costChanges[i] = probabilities.getCoveringCost(sets[i])
+						- probabilities.getNonCoveringCost(sets[i]);
+				if (costChanges[i] < 0) {
+					covering[i >>> 6] |= 1L << i;
+					start |= (int) masks[i];
+				}
+				if (costChanges[i] < Double.POSITIVE_INFINITY)
+					coverable |= (int) masks[i];
+			}
+
+			// Least cost of covering each superset of the start items
+			final double[] leastCosts = scratch.leastCosts;
+			final int[] lastSets = scratch.lastSets;
+			final int[] previous = scratch.previous;
+			Arrays.fill(leastCosts, 0, 1 << transactionSize,
+					Double.POSITIVE_INFINITY);
+			leastCosts[start] = 0;
+			for (int covered = start; covered <= coverable; covered++) {
+				if (leastCosts[covered] == Double.POSITIVE_INFINITY)
+					continue;
+				for (int i = 0; i < noItemsets; i++) {
+					final int newCovered = covered | (int) masks[i];
+					final double cost = leastCosts[covered] + costChanges[i];
+					if (costChanges[i] >= 0 && newCovered != covered
+							&& cost < leastCosts[newCovered]) {
+						leastCosts[newCovered] = cost;
+						lastSets[newCovered] = i;
+						previous[newCovered] = covered;
 					}
 				}
+			}
+
+			// Trace back the itemsets covering the coverable items
+			for (int covered = coverable; covered != start;
+					covered = previous[covered])
+				covering[lastSets[covered] >>> 6] |= 1L << lastSets[covered];
+			return getCovering(transaction, covering, noCoveringWords);
+		}
 
+		/** Scratch arrays for inferring transactions */
+		private static class Scratch extends CoveringScratch {
+			private Itemset[] sets = new Itemset[0];
+			private long[] masks = new long[0];
+			private double[] costChanges = new double[0];
+			private int[] items = new int[0];
+			private double[] leastCosts = new double[0];
+			private int[] lastSets = new int[0];
+			private int[] previous = new int[0];
+
+			/** Grow the arrays to hold the given no. itemsets and items */
+			void ensureCapacity(final int noItemsets, final int noItems) {
+				if (sets.length < noItemsets) {
+					sets = new Itemset[noItemsets];
+					masks = new long[noItemsets];
+					costChanges = new double[noItemsets];
+				}
+				if (items.length < noItems) {
+					items = new int[noItems];
+					leastCosts = new double[1 << noItems];
+					lastSets = new int[leastCosts.length];
+					previous = new int[leastCosts.length];
+				}
 			}
-			return covering;
 		}
 
 	}
 
+	/**
+	 * Infer using greedy, primal-dual or exact inference depending on the
+	 * size of the transaction: exact for transactions with few items and
+	 * cached itemsets, primal-dual for transactions with many items and
+	 * greedy for the rest.
+	 * <p>
+	 * The item thresholds can be set or calibrated by timing each algorithm on
+	 * a sample of transactions (see {@link #calibrate}).
+	 */
+	public static class InferHybrid implements InferenceAlgorithm, Serializable {
+		private static final long serialVersionUID = -7162283561037842816L;
+
+		/** Maximum slowdown over greedy accepted for exact inference */
+		private static final double EXACT_SLOWDOWN = 2;
+
+		/** Minimum time to run each algorithm on a calibration bucket */
+		private static final long CALIBRATION_NANOS = 20_000_000L;
+
+		private final InferGreedy greedy = new InferGreedy();
+		private final InferPrimalDual primalDual = new InferPrimalDual();
+		private final InferExact exact = new InferExact();
+
+		/** Max. cached itemsets of transactions to infer exactly */
+		private static final int EXACT_MAX_ITEMSETS = 64;
+
+		private int exactMaxItems;
+		private int primalDualMinItems;
+
+		/**
+		 * Constructor
+		 *
+		 * @param exactMaxItems
+		 *            max. items of transactions to infer exactly
+		 * @param primalDualMinItems
+		 *            min. items of transactions to infer by primal-dual
+		 */
+		public InferHybrid(final int exactMaxItems, final int primalDualMinItems) {
+			this.exactMaxItems = Math.min(exactMaxItems, InferExact.MAX_ITEMS);
+			this.primalDualMinItems = primalDualMinItems;
+		}
+
+		@Override
+		public long[] infer(final Transaction transaction,
+				final ItemsetProbabilities probabilities, final Itemset candidate) {
+			final int size = transaction.size();
+			if (size <= exactMaxItems
+					&& transaction.getItemsetCache(probabilities).size()
+							<= EXACT_MAX_ITEMSETS)
+				return exact.infer(transaction, probabilities, candidate);
+			if (size >= primalDualMinItems)
+				return primalDual.infer(transaction, probabilities, candidate);
+			return greedy.infer(transaction, probabilities, candidate);
+		}
+
+		/**
+		 * Set the item thresholds by timing each algorithm on the given
+		 * transactions, bucketed by their number of items (in powers of two).
+		 * Exact inference is used up to the largest bucket (of those with
+		 * fewer items) where it is at most twice as slow as greedy, and
+		 * primal-dual from the smallest bucket on which it is faster than
+		 * greedy for it and all larger buckets.
+		 */
+		public void calibrate(final List<Transaction> transactions,
+				final ItemsetProbabilities probabilities) {
+			final TreeMap<Integer, List<Transaction>> buckets = new TreeMap<>();
+			for (final Transaction transaction : transactions) {
+				if (!transaction.isEmpty())
+					buckets.computeIfAbsent(
+							31 - Integer.numberOfLeadingZeros(transaction
+									.size()), k -> new ArrayList<>()).add(
+							transaction);
+			}
+
+			exactMaxItems = 0;
+			boolean exactFast = true;
+			primalDualMinItems = Integer.MAX_VALUE;
+			for (final Map.Entry<Integer, List<Transaction>> entry : buckets
+					.entrySet()) {
+				final int minItems = 1 << entry.getKey();
+				final int maxItems = 2 * minItems - 1;
+				final List<Transaction> bucket = entry.getValue();
+				final double greedyTime = time(greedy, bucket, probabilities);
+				if (exactFast && minItems <= InferExact.MAX_ITEMS) {
+					exactFast = time(exact, bucket, probabilities) <= EXACT_SLOWDOWN
+							* greedyTime;
+					if (exactFast)
+						exactMaxItems = Math.min(maxItems, InferExact.MAX_ITEMS);
+				}
+				if (time(primalDual, bucket, probabilities) < greedyTime) {
+					if (primalDualMinItems == Integer.MAX_VALUE)
+						primalDualMinItems = minItems;
+				} else {
+					primalDualMinItems = Integer.MAX_VALUE;
+				}
+			}
+		}
+
+		/** Get the mean time (in ns) to infer the given transactions */
+		private static double time(final InferenceAlgorithm algorithm,
+				final List<Transaction> transactions,
+				final ItemsetProbabilities probabilities) {
+			long noInferred = 0;
+			final long startTime = System.nanoTime();
+			do {
+				for (final Transaction transaction : transactions)
+					algorithm.infer(transaction, probabilities);
+				noInferred += transactions.size();
+			} while (System.nanoTime() - startTime < CALIBRATION_NANOS);
+			return (System.nanoTime() - startTime) / (double) noInferred;
+		}
+
+		@Override
+		public String toString() {
+			return "exact up to " + exactMaxItems + " items and "
+					+ EXACT_MAX_ITEMSETS + " cached itemsets, primal-dual from "
+					+ (primalDualMinItems == Integer.MAX_VALUE ? "never"
+							: primalDualMinItems + " items")
+					+ ", greedy otherwise";
+		}
+
+	}
+
+	/** Inference algorithms selectable from the command line */
+	public enum Type {
+		GREEDY, PRIMAL_DUAL, EXACT, HYBRID
+	}
+
+	/**
+	 * Get an inference algorithm of the given type
+	 *
+	 * @param exactMaxItems
+	 *            max. items of transactions to infer exactly (hybrid only)
+	 * @param primalDualMinItems
+	 *            min. items of transactions to infer by primal-dual (hybrid
+	 *            only)
+	 */
+	public static InferenceAlgorithm getInferenceAlgorithm(final Type type,
+			final int exactMaxItems, final int primalDualMinItems) {
+		switch (type) {
+		case PRIMAL_DUAL:
+			return new InferPrimalDual();
+		case EXACT:
+			return new InferExact();
+		case HYBRID:
+			return new InferHybrid(exactMaxItems, primalDualMinItems);
+		default:
+			return new InferGreedy();
+		}
+	}
+
+	/** Per-thread table of item positions for building bitmasks */
+	private static final ThreadLocal<int[]> positionTables = ThreadLocal
+			.withInitial(() -> new int[0]);
+
+	/**
+	 * Get the bitmasks of the positions of the first noItemsets itemsets'
+	 * items within the first noItems (at most 64) items of a transaction
+	 *
+	 * @param masks
+	 *            array to store the bitmasks in
+	 * @return false if an itemset has an item outside the transaction
+	 */
+	private static boolean getMasks(final int[] items, final int noItems,
+			final Itemset[] sets, final int noItemsets, final long[] masks) {
+		int[] positions = positionTables.get();
+		if (noItems > 0 && items[noItems - 1] >= positions.length) {
+			positions = new int[items[noItems - 1] + 1];
+			positionTables.set(positions);
+		}
+		for (int pos = 0; pos < noItems; pos++)
+			positions[items[pos]] = pos + 1;
+
+		boolean inTransaction = true;
+		for (int i = 0; i < noItemsets; i++) {
+			masks[i] = sets[i].getMask(positions);
+			if (masks[i] == 0 && !sets[i].isEmpty()) {
+				inTransaction = false;
+				break;
+			}
+		}
+
+		for (int pos = 0; pos < noItems; pos++)
+			positions[items[pos]] = 0;
+		return inTransaction;
+	}
+
+	/**
+	 * Get the number of implicit singletons, cached itemsets and candidate
+	 * (if not null) of the transaction
+	 */
+	private static int getNoItemsets(final Transaction transaction,
+			final ItemsetCache cachedItemsets, final Itemset candidate) {
+		return (cachedItemsets.hasImplicitSingletons() ? transaction.size() : 0)
+				+ cachedItemsets.size() + (candidate != null ? 1 : 0);
+	}
+
+	/**
+	 * Store the implicit singletons followed by the cached itemsets and the
+	 * candidate (if not null) in the given array, i.e. the itemsets by
+	 * covering index
+	 */
+	private static void getItemsets(final Transaction transaction,
+			final ItemsetCache cachedItemsets,
+			final ItemsetProbabilities probabilities, final Itemset candidate,
+			final Itemset[] sets) {
+		final int noSingletons = transaction.getImplicitSingletons(
+				probabilities, sets);
+		final int noCached = cachedItemsets.size();
+		for (int i = 0; i < noCached; i++)
+			sets[noSingletons + i] = cachedItemsets.getItemset(i);
+		if (candidate != null)
+			sets[noSingletons + noCached] = candidate;
+	}
+
+	/**
+	 * Get the covering in the first noWords words of the given (scratch)
+	 * array: the transaction's cached covering if it is the same, so that
+	 * unchanged coverings are not copied, and a copy otherwise
+	 */
+	private static long[] getCovering(final Transaction transaction,
+			final long[] covering, final int noWords) {
+		final long[] cachedCovering = transaction.getCachedCovering();
+		final int length = Math.max(noWords, cachedCovering.length);
+		for (int w = 0; w < length; w++) {
+			final long word = w < noWords ? covering[w] : 0;
+			final long cachedWord = w < cachedCovering.length
+					? cachedCovering[w] : 0;
+			if (word != cachedWord)
+				return Arrays.copyOf(covering, noWords);
+		}
+		return cachedCovering;
+	}
+
 	private InferenceAlgorithms() {
 
 	}
@@ -1,12 +1,17 @@
 package itemsetmining.main;
 
+import itemsetmining.itemset.ItemDictionary;
 import itemsetmining.itemset.Itemset;
+import itemsetmining.itemset.ItemsetProbabilities;
 import itemsetmining.itemset.ItemsetTree;
-import itemsetmining.main.InferenceAlgorithms.InferGreedy;
 import itemsetmining.main.InferenceAlgorithms.InferenceAlgorithm;
+import itemsetmining.main.SparkItemsetMining.CacheLayoutConverter;
+import itemsetmining.main.SparkItemsetMining.InferenceTypeConverter;
 import itemsetmining.main.SparkItemsetMining.LogLevelConverter;
 import itemsetmining.rule.Rule;
+import itemsetmining.transaction.ItemsetCache;
 import itemsetmining.transaction.Transaction;
+import itemsetmining.transaction.TransactionFormat;
 import itemsetmining.transaction.TransactionList;
 import itemsetmining.util.Logging;
 
@@ -57,13 +62,45 @@ public class ItemsetMining extends ItemsetMiningCore {
 
 		@Parameter(names = { "-v", "--verbose" }, description = "Print to console instead of logfile")
 		private boolean verbose = false;
+
+		@Parameter(names = { "--cache" }, description = "Itemset cache layout (MAP or ARRAY)", converter = CacheLayoutConverter.class)
+		ItemsetCache.Layout cacheLayout = ItemsetCache.Layout.MAP;
+
+		@Parameter(names = { "--implicit-singletons" }, description = "Read singletons from a global table instead of caching them")
+		boolean implicitSingletons = false;
+
+		@Parameter(names = { "--speculative" }, description = "No. top candidates to evaluate concurrently")
+		int speculativeCandidates = 1;
+
+		@Parameter(names = { "--projection-classes" }, description = "Run inference once per class of transactions with the same multi-item itemsets")
+		boolean projectionClasses = false;
+
+		@Parameter(names = { "--squarem" }, description = "Accelerate parameter optimization by SQUAREM extrapolation")
+		boolean squarem = false;
+
+		@Parameter(names = { "--sample-size" }, description = "Screen candidates on a stratified sample of this many supporting transactions (0 to disable)")
+		int sampleSize = 0;
+
+		@Parameter(names = { "--prune-heuristic" }, description = "Skip candidates whose estimated best-case cost saving cannot improve the cost (a heuristic, so the mined itemsets can change)")
+		boolean pruneHeuristic = false;
+
+		@Parameter(names = { "--inference" }, description = "Inference algorithm (GREEDY, PRIMAL_DUAL, EXACT or HYBRID)", converter = InferenceTypeConverter.class)
+		InferenceAlgorithms.Type inference = InferenceAlgorithms.Type.GREEDY;
+
+		@Parameter(names = { "--exact-max-items" }, description = "Hybrid inference: max. items of transactions to infer exactly")
+		int exactMaxItems = 8;
+
+		@Parameter(names = { "--primal-dual-min-items" }, description = "Hybrid inference: min. items of transactions to infer by primal-dual")
+		int primalDualMinItems = 64;
+
+		@Parameter(names = { "--calibrate-inference" }, description = "Hybrid inference: set the item thresholds by timing each algorithm on a sample of transactions")
+		boolean calibrateInference = false;
 	}
 
 	public static void main(final String[] args) throws IOException {
 
 		// Main fixed parameters
 		final boolean associationRules = false;
-		final InferenceAlgorithm inferenceAlg = new InferGreedy();
 
 		// Runtime parameters
 		final Parameters params = new Parameters();
@@ -75,6 +112,17 @@ public class ItemsetMining extends ItemsetMiningCore {
 			// Set loglevel, runtime, timestamp and log file
 			LOG_LEVEL = params.logLevel;
 			MAX_RUNTIME = params.maxRunTime * 60 * 1_000;
+			CACHE_LAYOUT = params.cacheLayout;
+			IMPLICIT_SINGLETONS = params.implicitSingletons;
+			SPECULATIVE_CANDIDATES = params.speculativeCandidates;
+			PROJECTION_CLASSES = params.projectionClasses;
+			SQUAREM = params.squarem;
+			SAMPLE_SIZE = params.sampleSize;
+			PRUNE_HEURISTIC = params.pruneHeuristic;
+			CALIBRATE_INFERENCE = params.calibrateInference;
+			final InferenceAlgorithm inferenceAlg = InferenceAlgorithms
+					.getInferenceAlgorithm(params.inference,
+							params.exactMaxItems, params.primalDualMinItems);
 			File logFile = null; 
 			if(!params.verbose)
 			      logFile = Logging.getLogFileName("IIM",
@@ -121,16 +169,28 @@ public class ItemsetMining extends ItemsetMiningCore {
 				+ new SimpleDateFormat("dd.MM.yyyy-HH:mm:ss")
 						.format(new Date()));
 		logger.info("\n Inputs: -f " + inputFile + " -s " + maxStructureSteps
-				+ " -i " + maxEMIterations + " -r " + MAX_RUNTIME / 60_000 + "\n");
+				+ " -i " + maxEMIterations + " -r " + MAX_RUNTIME / 60_000
+				+ " --cache " + CACHE_LAYOUT
+				+ (IMPLICIT_SINGLETONS ? " --implicit-singletons" : "")
+				+ " --speculative " + SPECULATIVE_CANDIDATES
+				+ (PROJECTION_CLASSES ? " --projection-classes" : "")
+				+ (SQUAREM ? " --squarem" : "")
+				+ " --sample-size " + SAMPLE_SIZE
+				+ (PRUNE_HEURISTIC ? " --prune-heuristic" : "") + "\n");
+
+		// Determine most frequent singletons and rank items by support
+		final ItemDictionary dictionary = new ItemDictionary(
+				scanDatabaseToDetermineFrequencyOfSingleItems(inputFile));
 
 		// Read in transaction database
-		final TransactionList transactions = readTransactions(inputFile);
+		final TransactionList transactions = readTransactions(inputFile,
+				dictionary);
 
-		// Determine most frequent singletons
-		final Multiset<Integer> singletons = scanDatabaseToDetermineFrequencyOfSingleItems(inputFile);
+		// Build the vertical index used to find supporting transactions
+		transactions.getTidsetIndex();
 
 		// Apply the algorithm to build the itemset tree
-		final ItemsetTree tree = new ItemsetTree(singletons);
+		final ItemsetTree tree = new ItemsetTree(dictionary);
 		tree.buildTree(inputFile);
 		if (LOG_LEVEL.equals(Level.FINE))
 			tree.printStatistics(logger);
@@ -142,17 +202,28 @@ public class ItemsetMining extends ItemsetMiningCore {
 		// Run inference to find interesting itemsets
 		logger.fine("\n============= ITEMSET INFERENCE =============\n");
 		final HashMap<Itemset, Double> itemsets = structuralEM(transactions,
-				singletons, tree, inferenceAlgorithm, maxStructureSteps,
+				dictionary, tree, inferenceAlgorithm, maxStructureSteps,
 				maxEMIterations);
 		if (LOG_LEVEL.equals(Level.FINEST))
 			logger.finest("\n======= Transaction Database =======\n"
 					+ Files.toString(inputFile, Charsets.UTF_8) + "\n");
 
-		// Sort itemsets by interestingness
-		final HashMap<Itemset, Double> intMap = calculateInterestingness(
-				itemsets, transactions, tree);
-		final Map<Itemset, Double> sortedItemsets = sortItemsets(itemsets,
-				intMap);
+		// Report memory used by the itemset caches, and by the boxed maps and
+		// sets they replaced for comparison (this drops the caches)
+		if (LOG_LEVEL.equals(Level.FINE)) {
+			final double boxedMemory = getBoxedCacheMemoryPerTransaction(
+					transactions);
+			logger.fine(String.format(
+					" Itemset cache memory: %.1f bytes per transaction"
+							+ " (%.1f as boxed maps and sets)%n",
+					getCacheMemoryPerTransaction(transactions), boxedMemory));
+		}
+
+		// Sort itemsets by interestingness (using the original items)
+		final HashMap<Itemset, Double> intMap = dictionary
+				.decode(calculateInterestingness(itemsets, transactions, tree));
+		final Map<Itemset, Double> sortedItemsets = sortItemsets(
+				dictionary.decode(itemsets), intMap);
 
 		logger.info("\n============= INTERESTING ITEMSETS =============\n");
 		for (final Entry<Itemset, Double> entry : sortedItemsets.entrySet()) {
@@ -165,8 +236,77 @@ public class ItemsetMining extends ItemsetMiningCore {
 		return sortedItemsets;
 	}
 
+	/**
+	 * Estimate the heap memory used by the itemset cache of each transaction
+	 * by clearing all caches and measuring the freed memory.
+	 * <p>
+	 * N.B. the caches cannot be used afterwards
+	 */
+	public static double getCacheMemoryPerTransaction(
+			final TransactionList transactions) {
+		final long usedWithCaches = getUsedMemory();
+		for (final Transaction transaction : transactions
+				.getTransactionList())
+			transaction.clearItemsetCache();
+		final long usedWithoutCaches = getUsedMemory();
+		return (usedWithCaches - usedWithoutCaches)
+				/ (double) transactions.size();
+	}
+
+	/**
+	 * Estimate the heap memory the itemset cache of each transaction would use
+	 * as the boxed HashMap of cached itemsets (with their probabilities) and
+	 * HashSet coverings they were originally stored as, by building those and
+	 * measuring the memory they take up
+	 */
+	public static double getBoxedCacheMemoryPerTransaction(
+			final TransactionList transactions) {
+		final ItemsetProbabilities probs = transactions.getProbabilities();
+		final long usedWithoutBoxed = getUsedMemory();
+		final List<Object[]> boxedCaches = new ArrayList<>();
+		for (final Transaction transaction : transactions
+				.getTransactionList())
+			boxedCaches.add(new Object[] {
+					transaction.getCachedItemsets(probs),
+					transaction.getCoveringItemsets(
+							transaction.getCachedCovering(), probs, null),
+					transaction.getCoveringItemsets(
+							transaction.getTempCachedCovering(), probs, null) });
+		final long usedWithBoxed = getUsedMemory();
+		boxedCaches.clear();
+		return (usedWithBoxed - usedWithoutBoxed)
+				/ (double) transactions.size();
+	}
+
+	/**
+	 * Get used heap memory (in bytes) once it no longer drops after garbage
+	 * collection (a few collections can be needed to free everything)
+	 */
+	private static long getUsedMemory() {
+		final Runtime runtime = Runtime.getRuntime();
+		long usedMemory = Long.MAX_VALUE;
+		for (int i = 0, noDrops = 0; noDrops < 3 && i < 20; i++) {
+			System.gc();
+			final long currentMemory = runtime.totalMemory()
+					- runtime.freeMemory();
+			noDrops = currentMemory < usedMemory ? 0 : noDrops + 1;
+			usedMemory = Math.min(usedMemory, currentMemory);
+		}
+		return usedMemory;
+	}
+
 	public static TransactionList readTransactions(final File inputFile)
 			throws IOException {
+		return readTransactions(inputFile, null);
+	}
+
+	/**
+	 * Read in the transaction database, encoding items using the given
+	 * dictionary (if not null). Identical transactions are collapsed into one
+	 * weighted transaction.
+	 */
+	public static TransactionList readTransactions(final File inputFile,
+			final ItemDictionary dictionary) throws IOException {
 
 		final List<Transaction> transactions = new ArrayList<>();
 
@@ -183,14 +323,19 @@ public class ItemsetMining extends ItemsetMiningCore {
 			}
 
 			// split the transaction into items
-			final String[] lineSplited = line.split(" ");
+			final String[] lineSplited = TransactionFormat.getItems(line);
 			// create a structure for storing the transaction
 			final Transaction transaction = new Transaction();
-			// for each item in the transaction
-			for (int i = 0; i < lineSplited.length; i++) {
-				// convert the item to integer and add it to the structure
-				transaction.add(Integer.parseInt(lineSplited[i]));
+			transaction.setWeight(TransactionFormat.getCount(line));
+			if (dictionary != null) {
+				transaction.add(dictionary.encode(lineSplited));
+			} else {
+				// for each item in the transaction
+				for (int i = 0; i < lineSplited.length; i++) {
+					// convert the item to integer and add it to the structure
+					transaction.add(Integer.parseInt(lineSplited[i]));
 
+				}
 			}
 			transactions.add(transaction);
 
@@ -198,7 +343,7 @@ public class ItemsetMining extends ItemsetMiningCore {
 		// close the input file
 		LineIterator.closeQuietly(it);
 
-		return new TransactionList(transactions);
+		return new TransactionList(TransactionList.deduplicate(transactions));
 	}
 
 	/**
@@ -227,11 +372,12 @@ public class ItemsetMining extends ItemsetMiningCore {
 			}
 
 			// split the line into items
-			final String[] lineSplit = line.split(" ");
-			// for each item
-			for (final String itemString : lineSplit) {
+			final int[] items = TransactionFormat.getDistinctItems(line);
+			final int count = TransactionFormat.getCount(line);
+			// for each (distinct) item
+			for (final int item : items) {
 				// increase the support count of the item
-				singletons.add(Integer.parseInt(itemString));
+				singletons.add(item, count);
 			}
 		}
 		// close the input file
@@ -268,10 +414,9 @@ public class ItemsetMining extends ItemsetMiningCore {
 
 		// Recursively generate more rules
 		for (final Integer element : antecedent) {
-			final Itemset newAntecedent = new Itemset(antecedent);
-			newAntecedent.remove(element);
-			final Itemset newConsequent = new Itemset(consequent);
-			newConsequent.add(element);
+			final Itemset newAntecedent = antecedent.withoutItem(element);
+			final Itemset newConsequent = new Itemset(consequent,
+					new Itemset(element));
 			recursiveGenRules(rules, newAntecedent, newConsequent, prob);
 		}
 
@@ -3,14 +3,17 @@ package itemsetmining.main;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.PriorityQueue;
-import java.util.Set;
+import java.util.Random;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 import org.apache.commons.io.FileUtils;
 
@@ -19,9 +22,15 @@ import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.Multiset;
 import com.google.common.collect.Ordering;
 
+import itemsetmining.itemset.ItemDictionary;
 import itemsetmining.itemset.Itemset;
+import itemsetmining.itemset.ItemsetProbabilities;
+import itemsetmining.itemset.ItemsetRegistry;
 import itemsetmining.itemset.ItemsetTree;
+import itemsetmining.main.InferenceAlgorithms.InferHybrid;
 import itemsetmining.main.InferenceAlgorithms.InferenceAlgorithm;
+import itemsetmining.transaction.Transaction;
+import itemsetmining.transaction.ItemsetCache;
 import itemsetmining.transaction.TransactionDatabase;
 import itemsetmining.transaction.TransactionRDD;
 import scala.Tuple2;
@@ -32,6 +41,7 @@ public abstract class ItemsetMiningCore {
 	private static final int OPTIMIZE_PARAMS_EVERY = 1;
 	private static final int COMBINE_ITEMSETS_EVERY = 1;
 	private static final double OPTIMIZE_TOL = 1e-5;
+	private static final int CALIBRATION_SAMPLE_SIZE = 1000;
 
 	protected static final Logger logger = Logger.getLogger(ItemsetMiningCore.class.getName());
 	public static final File LOG_DIR = new File("/tmp/");
@@ -39,40 +49,63 @@ public abstract class ItemsetMiningCore {
 	/** Variable settings */
 	protected static Level LOG_LEVEL = Level.FINE;
 	protected static long MAX_RUNTIME = 6 * 60 * 60 * 1_000; // 6hrs
+	protected static ItemsetCache.Layout CACHE_LAYOUT = ItemsetCache.Layout.MAP;
+	protected static boolean IMPLICIT_SINGLETONS = false;
+	protected static int SPECULATIVE_CANDIDATES = 1;
+	protected static boolean PROJECTION_CLASSES = false;
+	protected static boolean SQUAREM = false;
+	protected static int SAMPLE_SIZE = 0;
+	protected static boolean PRUNE_HEURISTIC = false;
+	protected static boolean CALIBRATE_INFERENCE = false;
 
 	/**
-	 * Learn itemsets model using structural EM
+	 * Learn itemsets model using structural EM over the item IDs of the given
+	 * dictionary (itemsets are logged with their original items)
 	 */
 	protected static HashMap<Itemset, Double> structuralEM(final TransactionDatabase transactions,
-			final Multiset<Integer> singletons, final ItemsetTree tree, final InferenceAlgorithm inferenceAlgorithm,
+			final ItemDictionary dictionary, final ItemsetTree tree, final InferenceAlgorithm inferenceAlgorithm,
 			final int maxStructureSteps, final int maxEMIterations) {
 
 		// Start timer
 		final long startTime = System.currentTimeMillis();
 
-		// Initialize itemset cache
-		if (transactions instanceof TransactionRDD) {
-			SparkEMStep.initializeCachedItemsets(transactions, singletons);
-		} else {
-			EMStep.initializeCachedItemsets(transactions, singletons);
-		}
+		// Intern itemsets from now on
+		final ItemsetRegistry registry = ItemsetRegistry.getInstance();
+		registry.clear();
 
 		// Intialize itemsets with singleton sets and their relative support
 		// as well as supports with singletons and their actual supports
 		final HashMap<Itemset, Double> itemsets = new HashMap<>();
-		final HashMap<Itemset, Integer> supports = new HashMap<>();
-		for (final Multiset.Entry<Integer> entry : singletons.entrySet()) {
-			final Itemset set = new Itemset(entry.getElement());
+		final ItemsetSupports supports = new ItemsetSupports();
+		for (final Multiset.Entry<Integer> entry : dictionary.getSupports().entrySet()) {
+			final Itemset set = registry.intern(new Itemset(entry.getElement()));
 			final int support = entry.getCount();
 			itemsets.put(set, support / (double) transactions.size());
 			supports.put(set, support);
 		}
-		logger.fine(" Initial itemsets: " + itemsets + "\n");
+		logger.fine(" Initial itemsets: " + dictionary.decode(itemsets) + "\n");
+		transactions.setProbabilities(new ItemsetProbabilities(itemsets));
+
+		// Initialize itemset cache
+		if (transactions instanceof TransactionRDD) {
+			SparkEMStep.initializeCachedItemsets(transactions, itemsets, CACHE_LAYOUT, IMPLICIT_SINGLETONS);
+		} else {
+			EMStep.initializeCachedItemsets(transactions, itemsets, CACHE_LAYOUT, IMPLICIT_SINGLETONS,
+					PROJECTION_CLASSES);
+		}
+
+		// Calibrate hybrid inference thresholds on a sample of transactions
+		if (inferenceAlgorithm instanceof InferHybrid) {
+			final InferHybrid hybrid = (InferHybrid) inferenceAlgorithm;
+			if (CALIBRATE_INFERENCE)
+				hybrid.calibrate(sampleTransactions(transactions), transactions.getProbabilities());
+			logger.info(" Hybrid inference: " + hybrid + "\n");
+		}
 
-		// Initialize list of rejected sets
-		final Set<Itemset> rejected_sets = new HashSet<>();
+		// Initialize list of rejected sets (indexed by itemset ID)
+		final BitSet rejected_sets = new BitSet();
 
-		// Define decreasing support ordering for itemsets
+		// Define decreasing support ordering for itemsets (and candidates)
 		final Ordering<Itemset> supportOrdering = new Ordering<Itemset>() {
 			@Override
 			public int compare(final Itemset set1, final Itemset set2) {
@@ -80,17 +113,8 @@ public abstract class ItemsetMiningCore {
 			}
 		}.compound(Ordering.usingToString());
 
-		// Define decreasing support ordering for candidate itemsets
-		final HashMap<Itemset, Integer> candidateSupports = new HashMap<>();
-		final Ordering<Itemset> candidateSupportOrdering = new Ordering<Itemset>() {
-			@Override
-			public int compare(final Itemset set1, final Itemset set2) {
-				return candidateSupports.get(set2) - candidateSupports.get(set1);
-			}
-		}.compound(Ordering.usingToString());
-
 		// Initialize average cost per transaction for singletons
-		expectationMaximizationStep(itemsets, transactions, inferenceAlgorithm);
+		expectationMaximizationStep(itemsets, transactions, inferenceAlgorithm, dictionary);
 
 		// Structural EM
 		boolean breakLoop = false;
@@ -100,7 +124,7 @@ public abstract class ItemsetMiningCore {
 			if (iteration % COMBINE_ITEMSETS_EVERY == 0) {
 				logger.finer("\n----- Itemset Combination at Step " + iteration + "\n");
 				combineItemsetsStep(itemsets, transactions, tree, rejected_sets, inferenceAlgorithm, maxStructureSteps,
-						supportOrdering, supports, candidateSupportOrdering, candidateSupports);
+						supportOrdering, supports);
 				if (transactions.getIterationLimitExceeded())
 					breakLoop = true;
 			} else {
@@ -114,7 +138,7 @@ public abstract class ItemsetMiningCore {
 			// Optimize parameters of new structure
 			if (iteration % OPTIMIZE_PARAMS_EVERY == 0 || iteration == maxEMIterations || breakLoop == true) {
 				logger.fine("\n***** Parameter Optimization at Step " + iteration + "\n");
-				expectationMaximizationStep(itemsets, transactions, inferenceAlgorithm);
+				expectationMaximizationStep(itemsets, transactions, inferenceAlgorithm, dictionary);
 			}
 
 			// Break loop if requested
@@ -138,36 +162,63 @@ public abstract class ItemsetMiningCore {
 			if (iteration == maxEMIterations)
 				logger.warning("\nEM iteration limit exceeded.\n");
 		}
-		logger.info("\nElapsed time: " + (System.currentTimeMillis() - startTime) / (60. * 1000.) + " minutes.\n");
+		final long elapsedTime = System.currentTimeMillis() - startTime;
+		logger.info(String.format("%n Candidate evaluations: %d (%.1f per second)%n", transactions.getEvaluations(),
+				transactions.getEvaluations() / (elapsedTime / 1000.)));
+		if (SAMPLE_SIZE > 0)
+			logger.info(String.format(" Candidates rejected by screening: %d of %d%n",
+					transactions.getRejectedCandidates(), transactions.getScreenedCandidates()));
+		if (PRUNE_HEURISTIC)
+			logger.info(String.format(" Candidates pruned by cost heuristic: %d of %d%n",
+					transactions.getPrunedCandidates(), transactions.getGeneratedCandidates()));
+		logger.info(" EM passes: " + transactions.getEMPasses()
+				+ (SQUAREM ? String.format(" (%.1f saved by SQUAREM)", transactions.getEMPassesSaved()) : "") + "\n");
+		logger.info("\nElapsed time: " + elapsedTime / (60. * 1000.) + " minutes.\n");
 
 		return itemsets;
 	}
 
 	/**
 	 * Find optimal parameters for given set of itemsets and store in itemsets
+	 * (logging them with the original items of the given dictionary)
 	 *
 	 * @return TransactionDatabase with the average cost per transaction
 	 *         <p>
 	 *         NB. zero probability itemsets are dropped
 	 */
 	private static void expectationMaximizationStep(final HashMap<Itemset, Double> itemsets,
-			final TransactionDatabase transactions, final InferenceAlgorithm inferenceAlgorithm) {
+			final TransactionDatabase transactions, final InferenceAlgorithm inferenceAlgorithm,
+			final ItemDictionary dictionary) {
 
-		logger.fine(" Structure Optimal Itemsets: " + itemsets + "\n");
+		logger.fine(" Structure Optimal Itemsets: " + dictionary.decode(itemsets) + "\n");
 
 		Map<Itemset, Double> prevItemsets = itemsets;
 
+		// SQUAREM acceleration (local only as the safeguard needs the cost
+		// after each pass): extrapolate after every two EM steps and, if the
+		// stabilizing step after it increases the cost, fall back to the plain
+		// EM iterate and stop accelerating
+		boolean accelerate = SQUAREM && !(transactions instanceof TransactionRDD);
+		final List<ItemsetProbabilities> iterates = new ArrayList<>();
+		Safeguard safeguard = null;
+		int noPasses = 0;
+		int noExtrapolations = 0;
+		double noPassesSaved = 0;
+
 		double norm = 1;
 		while (norm > OPTIMIZE_TOL) {
 
 			// Set up storage
 			final Map<Itemset, Double> newItemsets;
+			if (accelerate)
+				iterates.add(transactions.getProbabilities());
 
 			// Parallel E-step and M-step combined
 			if (transactions instanceof TransactionRDD)
 				newItemsets = SparkEMStep.hardEMStep(transactions, inferenceAlgorithm);
 			else
-				newItemsets = EMStep.hardEMStep(transactions.getTransactionList(), inferenceAlgorithm);
+				newItemsets = EMStep.hardEMStep(transactions, inferenceAlgorithm);
+			noPasses++;
 
 			// If set has stabilised calculate norm(p_prev - p_new)
 			if (prevItemsets.keySet().equals(newItemsets.keySet())) {
@@ -179,7 +230,38 @@ public abstract class ItemsetMiningCore {
 			}
 
 			prevItemsets = newItemsets;
+
+			if (safeguard != null) { // stabilizing step
+				EMStep.calculateAndSetAverageCost(transactions);
+				if (transactions.getAverageCost() > safeguard.averageCost) {
+					safeguard.restore(transactions);
+					prevItemsets = safeguard.itemsets;
+					norm = safeguard.norm;
+					accelerate = false;
+					noPassesSaved--;
+				} else {
+					noPassesSaved += safeguard.getPassesSaved(iterates.get(2).distance(transactions.getProbabilities()));
+				}
+				safeguard = null;
+				iterates.clear();
+			} else if (accelerate && iterates.size() == 2 && norm > OPTIMIZE_TOL) {
+				// Extrapolate from the last two EM steps (if not converged)
+				final ItemsetProbabilities extrapolated = iterates.get(0).extrapolate(iterates.get(1),
+						transactions.getProbabilities());
+				if (extrapolated != null) {
+					EMStep.calculateAndSetAverageCost(transactions);
+					safeguard = new Safeguard(transactions, prevItemsets, norm, iterates);
+					transactions.setProbabilities(extrapolated);
+					noExtrapolations++;
+				} else {
+					iterates.clear();
+				}
+			}
 		}
+		transactions.countEMPasses(noPasses);
+		transactions.countEMPassesSaved(noPassesSaved);
+		logger.fine(" EM passes: " + noPasses + (SQUAREM ? String.format(" (%d extrapolations, %.1f passes saved)",
+				noExtrapolations, noPassesSaved) : "") + "\n");
 
 		// Calculate average cost of last covering
 		if (transactions instanceof TransactionRDD)
@@ -189,14 +271,66 @@ public abstract class ItemsetMiningCore {
 
 		itemsets.clear();
 		itemsets.putAll(prevItemsets);
-		logger.fine(" Parameter Optimal Itemsets: " + itemsets + "\n");
+		logger.fine(" Parameter Optimal Itemsets: " + dictionary.decode(itemsets) + "\n");
 		logger.fine(String.format(" Average cost: %.2f%n", transactions.getAverageCost()));
 	}
 
+	/**
+	 * State of the parameter optimization before a SQUAREM extrapolation,
+	 * i.e. the plain EM iterate with its coverings, so that it can be restored
+	 * if the stabilizing step after the extrapolation increases the cost
+	 */
+	private static class Safeguard {
+		private final ItemsetProbabilities probabilities;
+		private final Map<Itemset, Double> itemsets;
+		private final List<long[]> coverings;
+		private final int[] coveringCounts;
+		private final double averageCost;
+		private final double norm;
+
+		/** Norms of the two EM steps extrapolated from */
+		private final double stepNorm1;
+		private final double stepNorm2;
+
+		Safeguard(final TransactionDatabase transactions, final Map<Itemset, Double> itemsets, final double norm,
+				final List<ItemsetProbabilities> iterates) {
+			probabilities = transactions.getProbabilities();
+			this.itemsets = itemsets;
+			coverings = EMStep.getCachedCoverings(transactions);
+			coveringCounts = transactions.getCoveringCounts();
+			averageCost = transactions.getAverageCost();
+			this.norm = norm;
+			stepNorm1 = iterates.get(0).distance(iterates.get(1));
+			stepNorm2 = iterates.get(1).distance(probabilities);
+		}
+
+		/** Restore the plain EM iterate */
+		void restore(final TransactionDatabase transactions) {
+			transactions.setProbabilities(probabilities);
+			EMStep.setCachedCoverings(transactions, coverings);
+			transactions.setCoveringCounts(coveringCounts);
+			transactions.setAverageCost(averageCost);
+		}
+
+		/**
+		 * Estimate the no. EM passes saved by the extrapolation and the
+		 * stabilizing step (with the given step norm) assuming linear
+		 * convergence at the rate of the EM steps extrapolated from, i.e. the
+		 * no. plain EM passes it would take to shrink the step norm as much
+		 * less the one stabilizing pass
+		 */
+		double getPassesSaved(final double stabilizingNorm) {
+			final double rate = stepNorm2 / stepNorm1;
+			if (!(rate > 0 && rate < 1 && stabilizingNorm > 0))
+				return 0;
+			return Math.max(Math.log(stabilizingNorm / stepNorm2) / Math.log(rate) - 1, 0);
+		}
+	}
+
 	/** Generate candidate itemsets from Itemset tree */
 	@Deprecated
 	private static void learnStructureStep(final HashMap<Itemset, Double> itemsets,
-			final TransactionDatabase transactions, final ItemsetTree tree, final Set<Itemset> rejected_sets,
+			final TransactionDatabase transactions, final ItemsetTree tree, final BitSet rejected_sets,
 			final InferenceAlgorithm inferenceAlgorithm, final int maxSteps) {
 
 		// Try and find better itemset to add
@@ -206,20 +340,22 @@ public abstract class ItemsetMiningCore {
 		for (iteration = 0; iteration < maxSteps; iteration++) {
 
 			// Generate candidate itemset
-			final Itemset candidate = tree.randomWalk();
-			logger.finer(candidate + ", ");
+			final Itemset walk = tree.randomWalk();
+			logger.finer(walk + ", ");
 
 			// Evaluate candidate itemset (skipping empty candidates)
-			if (!rejected_sets.contains(candidate) && !candidate.isEmpty()) {
+			final int id = ItemsetRegistry.getInstance().getId(walk);
+			if ((id < 0 || !rejected_sets.get(id)) && !walk.isEmpty()) {
+				final Itemset candidate = ItemsetRegistry.getInstance().intern(walk);
 				// Skip candidates already present
 				if (itemsets.keySet().contains(candidate)) {
-					rejected_sets.add(candidate);
+					rejected_sets.set(candidate.getId());
 					continue;
 				}
 				final boolean accepted = evaluateCandidate(itemsets, transactions, inferenceAlgorithm, candidate);
 				if (accepted == true) // Better itemset found
 					return;
-				rejected_sets.add(candidate); // otherwise add to rejected
+				rejected_sets.set(candidate.getId()); // otherwise add to rejected
 				logger.finer("\n Structural candidate itemsets: ");
 			}
 
@@ -234,31 +370,30 @@ public abstract class ItemsetMiningCore {
 	 * Generate candidate itemsets by combining existing sets with highest
 	 * order. Evaluate candidates with highest order first.
 	 *
-	 * @param itemsetSupportOrdering
-	 *            ordering that determines which itemsets to combine first
+	 * @param supportOrdering
+	 *            ordering that determines which itemsets to combine and which
+	 *            candidates to evaluate first
 	 * @param supports
-	 *            cached itemset supports for the above ordering
-	 * @param candidateSupportOrdering
-	 *            ordering that determines which candidates to evaluate first
-	 * @param candidateSupports
-	 *            cached candididate supports for the above ordering
+	 *            cached itemset and candidate supports for the above ordering
 	 */
 	private static void combineItemsetsStep(final HashMap<Itemset, Double> itemsets,
-			final TransactionDatabase transactions, final ItemsetTree tree, final Set<Itemset> rejected_sets,
-			final InferenceAlgorithm inferenceAlgorithm, final int maxSteps,
-			final Ordering<Itemset> itemsetSupportOrdering, final HashMap<Itemset, Integer> supports,
-			final Ordering<Itemset> candidateSupportOrdering, final HashMap<Itemset, Integer> candidateSupports) {
+			final TransactionDatabase transactions, final ItemsetTree tree, final BitSet rejected_sets,
+			final InferenceAlgorithm inferenceAlgorithm, final int maxSteps, final Ordering<Itemset> supportOrdering,
+			final ItemsetSupports supports) {
 
 		// Set up support-ordered priority queue
-		final PriorityQueue<Itemset> candidateQueue = new PriorityQueue<Itemset>(maxSteps, candidateSupportOrdering);
+		final PriorityQueue<Itemset> candidateQueue = new PriorityQueue<Itemset>(maxSteps, supportOrdering);
 
 		// Sort itemsets according to given ordering
 		final ArrayList<Itemset> sortedItemsets = new ArrayList<>(itemsets.keySet());
-		Collections.sort(sortedItemsets, itemsetSupportOrdering);
+		Collections.sort(sortedItemsets, supportOrdering);
 
 		// Find maxSteps supersets for all itemsets
 		// final long startTime = System.nanoTime();
+		final ItemsetRegistry registry = ItemsetRegistry.getInstance();
+		final ItemsetProbabilities probs = transactions.getProbabilities();
 		int iteration = 0;
+		int noPruned = 0;
 		final int len = sortedItemsets.size();
 		outerLoop: for (int k = 0; k < 2 * len - 2; k++) {
 			for (int i = 0; i < len && i < k + 1; i++) {
@@ -266,16 +401,24 @@ public abstract class ItemsetMiningCore {
 					if (k <= i + j) {
 
 						// Create a new candidate by combining itemsets
-						final Itemset candidate = new Itemset();
-						candidate.add(sortedItemsets.get(i));
-						candidate.add(sortedItemsets.get(j));
-
-						// Add candidate to queue
-						if (!rejected_sets.contains(candidate)) {
-							if (!candidateSupports.containsKey(candidate))
-								candidateSupports.put(candidate, tree.getSupportOfItemset(candidate));
-							candidateQueue.add(candidate);
-							iteration++;
+						final Itemset union = new Itemset(sortedItemsets.get(i), sortedItemsets.get(j));
+
+						// Add candidate to queue (unless it is unlikely to improve the cost),
+						// only interning it once it is evaluated
+						final int id = registry.getId(union);
+						if (id < 0 || !rejected_sets.get(id)) {
+							final Itemset candidate = id < 0 ? union : registry.get(id);
+							if (!supports.contains(candidate))
+								supports.put(candidate, tree.getSupportOfItemset(candidate));
+							final boolean pruned = PRUNE_HEURISTIC && isPruned(probs, candidate, sortedItemsets.get(i),
+									sortedItemsets.get(j), supports.get(candidate), transactions.size());
+							transactions.countCandidate(pruned);
+							if (pruned) {
+								noPruned++;
+							} else {
+								candidateQueue.add(candidate);
+								iteration++;
+							}
 						}
 
 						if (iteration >= maxSteps) // Queue limit exceeded
@@ -286,21 +429,31 @@ public abstract class ItemsetMiningCore {
 			}
 		}
 		logger.info(" Finished bulding priority queue. Size: " + candidateQueue.size() + "\n");
+		if (PRUNE_HEURISTIC)
+			logger.info(String.format(" Pruned by cost heuristic: %d of %d candidates (%.1f%%)%n", noPruned,
+					noPruned + candidateQueue.size(), 100. * noPruned / Math.max(1, noPruned + candidateQueue.size())));
 		// logger.info(" Time taken: " + (System.nanoTime() - startTime) / 1e6);
 		// logger.finest(" Structural candidate itemsets: ");
 
-		// Evaluate candidates with highest support first
+		// Evaluate candidates with highest support first (speculatively
+		// evaluating the top candidates concurrently if requested)
+		final int noSpeculative = transactions instanceof TransactionRDD ? 1 : Math.max(1, SPECULATIVE_CANDIDATES);
+		final List<Itemset> topCandidates = new ArrayList<>(noSpeculative);
 		int counter = 0;
-		for (Itemset topCandidate; (topCandidate = candidateQueue.poll()) != null;) {
-			// logger.finest("\n Candidate: " + topCandidate + ", supp: "
-			// + candidateSupports.get(topCandidate)
-			// / (double) transactions.size());
-			counter++;
-			rejected_sets.add(topCandidate); // candidate seen
-			final boolean accepted = evaluateCandidate(itemsets, transactions, inferenceAlgorithm, topCandidate);
-			if (accepted == true) { // Better itemset found
-				// update supports
-				supports.put(topCandidate, candidateSupports.get(topCandidate));
+		while (!candidateQueue.isEmpty()) {
+			topCandidates.clear();
+			for (Itemset topCandidate; topCandidates.size() < noSpeculative
+					&& (topCandidate = candidateQueue.poll()) != null;) {
+				final Itemset candidate = registry.intern(topCandidate);
+				supports.put(candidate, supports.get(topCandidate));
+				topCandidates.add(candidate);
+			}
+			final int accepted = evaluateCandidates(itemsets, transactions, inferenceAlgorithm, topCandidates);
+			for (int i = 0; i < topCandidates.size() && (accepted < 0 || i <= accepted); i++) {
+				counter++;
+				rejected_sets.set(topCandidates.get(i).getId()); // candidate seen
+			}
+			if (accepted >= 0) { // Better itemset found
 				logger.info(" Number of eval calls: " + counter + "\n");
 				return;
 			}
@@ -328,9 +481,9 @@ public abstract class ItemsetMiningCore {
 	@SuppressWarnings("unused")
 	@Deprecated
 	private static void oldCombineItemsetsStep(final HashMap<Itemset, Double> itemsets,
-			final TransactionDatabase transactions, final ItemsetTree tree, final Set<Itemset> rejected_sets,
+			final TransactionDatabase transactions, final ItemsetTree tree, final BitSet rejected_sets,
 			final InferenceAlgorithm inferenceAlgorithm, final int maxSteps, final Ordering<Itemset> itemsetOrdering,
-			final HashMap<Itemset, Integer> supports) {
+			final ItemsetSupports supports) {
 
 		// Try and find better itemset to add
 		// logger.finest(" Structural candidate itemsets: ");
@@ -348,14 +501,13 @@ public abstract class ItemsetMiningCore {
 					if (k <= i + j) {
 
 						// Create a new candidate by combining itemsets
-						final Itemset candidate = new Itemset();
-						candidate.add(sortedItemsets.get(i));
-						candidate.add(sortedItemsets.get(j));
+						final Itemset candidate = ItemsetRegistry.getInstance()
+								.intern(new Itemset(sortedItemsets.get(i), sortedItemsets.get(j)));
 						// logger.finest(candidate + ", ");
 
 						// Evaluate candidate itemset
-						if (!rejected_sets.contains(candidate)) {
-							rejected_sets.add(candidate); // candidate seen
+						if (!rejected_sets.get(candidate.getId())) {
+							rejected_sets.set(candidate.getId()); // candidate seen
 							final boolean accepted = evaluateCandidate(itemsets, transactions, inferenceAlgorithm,
 									candidate);
 							if (accepted == true) { // Better itemset found
@@ -383,43 +535,162 @@ public abstract class ItemsetMiningCore {
 		transactions.setIterationLimitExceeded();
 	}
 
+	/**
+	 * Check if a candidate is unlikely to improve the cost, estimating its
+	 * best case as displacing its two parents (or its singletons) from the
+	 * covering of every transaction that supports it, at the current
+	 * probabilities. Each displaced itemset saves log((1 - p) / p) and each
+	 * covering by the candidate costs at least -log(support / N).
+	 * <p>
+	 * N.B. this is a heuristic, not a bound: it ignores the M-step
+	 * re-estimating the other probabilities and the candidate's own
+	 * non-covering costs, so it can prune candidates that would have been
+	 * accepted (and change the mined itemsets)
+	 */
+	private static boolean isPruned(final ItemsetProbabilities probs, final Itemset candidate,
+			final Itemset parent1, final Itemset parent2, final int support, final double noTransactions) {
+		if (support == 0)
+			return true;
+		double singletonsSaving = 0;
+		for (final int item : candidate) {
+			final Itemset singleton = probs.getSingleton(item);
+			singletonsSaving += getMaxSaving(singleton == null ? 0 : probs.get(singleton));
+		}
+		final double parentsSaving = getMaxSaving(probs.get(parent1)) + getMaxSaving(probs.get(parent2));
+		return -Math.log(support / noTransactions) >= Math.max(parentsSaving, singletonsSaving);
+	}
+
+	/**
+	 * Get the cost saved by removing an itemset of probability p from a
+	 * covering (at fixed probabilities)
+	 */
+	private static double getMaxSaving(final double p) {
+		if (p == 0) // can't be in a covering, so no bound
+			return Double.POSITIVE_INFINITY;
+		return Math.max(0, Math.log((1 - p) / p));
+	}
+
+	/** Get a random sample of the transactions for calibrating inference */
+	private static List<Transaction> sampleTransactions(final TransactionDatabase transactions) {
+		if (transactions instanceof TransactionRDD)
+			return transactions.getTransactionRDD().takeSample(false, CALIBRATION_SAMPLE_SIZE, 1);
+		final List<Transaction> sample = new ArrayList<>(transactions.getTransactionList());
+		Collections.shuffle(sample, new Random(1));
+		return sample.subList(0, Math.min(CALIBRATION_SAMPLE_SIZE, sample.size()));
+	}
+
 	/** Evaluate a candidate itemset to see if it should be included */
 	private static boolean evaluateCandidate(final HashMap<Itemset, Double> itemsets,
 			final TransactionDatabase transactions, final InferenceAlgorithm inferenceAlgorithm,
 			final Itemset candidate) {
+		return evaluateCandidates(itemsets, transactions, inferenceAlgorithm,
+				Collections.singletonList(candidate)) >= 0;
+	}
 
-		logger.finer("\n Candidate: " + candidate);
+	/**
+	 * Evaluate candidate itemsets in order and include the first that improves
+	 * the cost. Local candidates are evaluated concurrently as evaluation does
+	 * not modify the transactions, so this includes the same candidate as
+	 * evaluating them one by one.
+	 *
+	 * @return the index of the included candidate or -1 if none
+	 */
+	private static int evaluateCandidates(final HashMap<Itemset, Double> itemsets,
+			final TransactionDatabase transactions, final InferenceAlgorithm inferenceAlgorithm,
+			final List<Itemset> candidates) {
 
-		// Find cost in parallel
-		Tuple2<Double, Double> costAndProb;
-		if (transactions instanceof TransactionRDD) {
-			costAndProb = SparkEMStep.structuralEMStep(transactions, inferenceAlgorithm, candidate);
-		} else {
-			costAndProb = EMStep.structuralEMStep(transactions, inferenceAlgorithm, candidate);
-		}
-		final double curCost = costAndProb._1;
-		final double prob = costAndProb._2;
-		logger.finer(String.format(", cost: %.2f", curCost));
-
-		// Return if better set of itemsets found
-		if (curCost < transactions.getAverageCost()) {
-			logger.finer("\n Candidate Accepted.\n");
-			// Update cache with candidate
-			Map<Itemset, Double> newItemsets;
+		// Find costs in parallel
+		final List<EMStep.CandidateEvaluation> evaluations;
+		if (transactions instanceof TransactionRDD)
+			evaluations = null;
+		else
+			evaluations = (candidates.size() > 1 ? candidates.parallelStream() : candidates.stream())
+					.map(candidate -> EMStep.structuralEMStep(transactions, inferenceAlgorithm, candidate, SAMPLE_SIZE))
+					.collect(Collectors.toList());
+
+		for (int i = 0; i < candidates.size(); i++) {
+			final Itemset candidate = candidates.get(i);
+			logger.finer("\n Candidate: " + candidate);
+
+			double curCost;
+			double prob;
 			if (transactions instanceof TransactionRDD) {
-				newItemsets = SparkEMStep.addAcceptedCandidateCache(transactions, candidate, prob);
+				final Tuple2<Double, Double> costAndProb = SparkEMStep.structuralEMStep(transactions,
+						inferenceAlgorithm, candidate, SAMPLE_SIZE);
+				curCost = costAndProb._1;
+				prob = costAndProb._2;
 			} else {
-				newItemsets = EMStep.addAcceptedCandidateCache(transactions, candidate, prob);
+				curCost = evaluations.get(i).averageCost;
+				prob = evaluations.get(i).prob;
 			}
-			// Update itemsets with newly inferred itemsets
-			itemsets.clear();
-			itemsets.putAll(newItemsets);
-			transactions.setAverageCost(curCost);
-			return true;
-		} // otherwise keep trying
+			logger.finer(String.format(", cost: %.2f", curCost));
+
+			// Return if better set of itemsets found
+			if (curCost < transactions.getAverageCost()) {
+				logger.finer("\n Candidate Accepted.\n");
+				// Update cache with candidate
+				Map<Itemset, Double> newItemsets;
+				if (transactions instanceof TransactionRDD) {
+					newItemsets = SparkEMStep.addAcceptedCandidateCache(transactions, candidate, prob);
+				} else {
+					newItemsets = EMStep.addAcceptedCandidateCache(transactions, candidate, evaluations.get(i));
+					// Discard the speculative evaluations after it
+					evaluations.subList(i + 1, evaluations.size()).forEach(EMStep.CandidateEvaluation::rollback);
+				}
+				// Update itemsets with newly inferred itemsets
+				itemsets.clear();
+				itemsets.putAll(newItemsets);
+				transactions.setAverageCost(curCost);
+				return i;
+			} // otherwise keep trying
+			if (evaluations != null)
+				evaluations.get(i).rollback();
+		}
 
 		// No better candidate found
-		return false;
+		return -1;
+	}
+
+	/**
+	 * Tree supports of itemsets indexed by itemset ID, and of candidates that
+	 * are not interned (as they have not been evaluated) by itemset
+	 */
+	private static class ItemsetSupports {
+
+		/** Supports (-1 if not yet known) */
+		private int[] supports = new int[0];
+
+		/** Supports of candidates that are not interned */
+		private final HashMap<Itemset, Integer> candidateSupports = new HashMap<>();
+
+		int get(final Itemset set) {
+			final int id = set.getId();
+			if (id >= 0 && id < supports.length && supports[id] >= 0)
+				return supports[id];
+			return candidateSupports.get(set);
+		}
+
+		boolean contains(final Itemset set) {
+			final int id = set.getId();
+			if (id >= 0 && id < supports.length && supports[id] >= 0)
+				return true;
+			return candidateSupports.containsKey(set);
+		}
+
+		void put(final Itemset set, final int support) {
+			final int id = set.getId();
+			if (id < 0) {
+				candidateSupports.put(set, support);
+				return;
+			}
+			if (id >= supports.length) {
+				final int oldLength = supports.length;
+				supports = Arrays.copyOf(supports, Math.max(id + 1, 2 * oldLength));
+				Arrays.fill(supports, oldLength, supports.length, -1);
+			}
+			supports[id] = support;
+		}
+
 	}
 
 	/** Sort itemsets by interestingness */
@@ -468,9 +739,10 @@ public abstract class ItemsetMiningCore {
 				final String[] items = splitLine[0].split(",");
 				items[0] = items[0].replace("{", "");
 				items[items.length - 1] = items[items.length - 1].replace("}", "");
-				final Itemset itemset = new Itemset();
+				final List<Integer> itemList = new ArrayList<>();
 				for (final String item : items)
-					itemset.add(Integer.parseInt(item.trim()));
+					itemList.add(Integer.parseInt(item.trim()));
+				final Itemset itemset = new Itemset(itemList);
 				final double prob = Double.parseDouble(splitLine[1].split(":")[1]);
 				final double intr = Double.parseDouble(splitLine[2].split(":")[1]);
 				itemsets.put(itemset, prob);
@@ -1,39 +1,66 @@
 package itemsetmining.main;
 
 import itemsetmining.itemset.Itemset;
+import itemsetmining.itemset.ItemsetProbabilities;
+import itemsetmining.itemset.ItemsetRegistry;
+import itemsetmining.itemset.SetKernels;
 import itemsetmining.main.InferenceAlgorithms.InferenceAlgorithm;
+import itemsetmining.transaction.ItemsetCache;
 import itemsetmining.transaction.Transaction;
 import itemsetmining.transaction.TransactionDatabase;
+import itemsetmining.transaction.TransactionOverlay;
 
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.Random;
 
 import org.apache.spark.api.java.JavaPairRDD;
 import org.apache.spark.api.java.JavaRDD;
 
 import scala.Tuple2;
 
-import com.google.common.collect.Multiset;
-
 /** Class to hold the various transaction EM Steps for Spark */
 public class SparkEMStep {
 
 	/** Initialize cached itemsets */
 	static void initializeCachedItemsets(
 			final TransactionDatabase transactions,
-			final Multiset<Integer> singletons) {
-		final long noTransactions = transactions.size();
+			final HashMap<Itemset, Double> singletons,
+			final ItemsetCache.Layout layout, final boolean implicitSingletons) {
 		final JavaRDD<Transaction> updatedTransactions = transactions
 				.getTransactionRDD().map(t -> {
-					t.initializeCachedItemsets(singletons, noTransactions);
+					t.initializeCachedItemsets(singletons.keySet(), layout,
+							implicitSingletons);
 					return t;
 				});
 
 		// Update cache reference
 		transactions.updateTransactionCache(updatedTransactions);
+
+		// Each singleton is cached by exactly the transactions that support it
+		final HashMap<Integer, Integer> singletonIds = new HashMap<>();
+		for (final Itemset set : singletons.keySet())
+			singletonIds.put(set.iterator().next(), set.getId());
+		final List<Tuple2<Integer, Integer>> supports = transactions
+				.getTransactionRDD()
+				.flatMapToPair(t -> {
+					final List<Tuple2<Integer, Integer>> counts = new ArrayList<>();
+					for (final int item : t) {
+						final Integer id = singletonIds.get(item);
+						if (id != null)
+							counts.add(new Tuple2<Integer, Integer>(id, t
+									.getWeight()));
+					}
+					return counts;
+				}).reduceByKey((a, b) -> a + b).collect();
+		final int[] cacheCounts = new int[ItemsetRegistry.getInstance().size()];
+		for (final Tuple2<Integer, Integer> idWithSupport : supports)
+			cacheCounts[idWithSupport._1] = idWithSupport._2;
+		transactions.setCacheCounts(cacheCounts);
 	}
 
 	/** EM-step for hard EM */
@@ -41,98 +68,140 @@ public class SparkEMStep {
 			final TransactionDatabase transactions,
 			final InferenceAlgorithm inferenceAlgorithm) {
 		final double noTransactions = transactions.size();
+		final ItemsetProbabilities probs = transactions.getProbabilities();
 
-		// E-step: map and cache covering
-		final JavaPairRDD<Transaction, Set<Itemset>> transactionWithCovering = transactions
-				.getTransactionRDD()
-				.mapToPair(
-						t -> {
-							final HashSet<Itemset> covering = inferenceAlgorithm
-									.infer(t);
-							t.setCachedCovering(covering);
-							return new Tuple2<Transaction, Set<Itemset>>(t,
-									covering);
-						});
+		// E-step: map and cache covering (chunk by chunk)
+		final JavaPairRDD<Transaction, long[]> transactionWithCovering = transactions
+				.getTransactionRDD().mapPartitionsToPair(
+						partition -> inferChunks(partition, inferenceAlgorithm,
+								probs, null));
 
 		// E-step: reduce and get itemset counts
-		final List<Tuple2<Itemset, Integer>> coveringWithCounts = transactionWithCovering
-				.values().flatMap(s -> s)
-				.mapToPair(s -> new Tuple2<Itemset, Integer>(s, 1))
-				.reduceByKey((a, b) -> a + b).collect();
+		final List<Tuple2<Integer, Integer>> coveringWithCounts = countCoverings(
+				transactionWithCovering, probs);
 
-		// M-step
-		final Map<Itemset, Double> newItemsets = coveringWithCounts
-				.parallelStream().collect(
-						Collectors
-								.toMap(Tuple2::_1, t -> t._2 / noTransactions));
-
-		// Update cached itemsets
-		final JavaRDD<Transaction> updatedTransactions = transactionWithCovering
-				.keys().map(t -> {
-					t.updateCachedItemsets(newItemsets);
-					return t;
-				});
+		// M-step (caches drop zero probability itemsets lazily)
+		final ItemsetProbabilities newProbs = probs.next(getProbabilities(
+				coveringWithCounts, noTransactions));
+		transactions.setProbabilities(newProbs);
+		transactions.setCoveringCounts(getCounts(coveringWithCounts));
 
 		// Update cache reference
-		transactions.updateTransactionCache(updatedTransactions);
+		transactions.updateTransactionCache(transactionWithCovering.keys());
 
-		return newItemsets;
+		return newProbs.toMap();
 	}
 
 	/** Get average cost of last EM-step */
 	static void calculateAndSetAverageCost(
 			final TransactionDatabase transactions) {
 		final double noTransactions = transactions.size();
+		final ItemsetProbabilities probs = transactions.getProbabilities();
 		final double averageCost = transactions.getTransactionRDD()
-				.map(Transaction::getCachedCost).reduce((a, b) -> a + b)
+				.map(t -> t.getCachedCost(probs) * t.getWeight())
+				.reduce((a, b) -> a + b)
 				/ noTransactions;
 		transactions.setAverageCost(averageCost);
 	}
 
-	/** EM-step for structural EM */
+	/**
+	 * EM-step for structural EM
+	 *
+	 * @param sampleSize
+	 *            if positive, first screen the candidate on a stratified sample
+	 *            of about this many supporting transactions (see
+	 *            {@link CandidateScreen}) and only evaluate it in full if it is
+	 *            not confidently worse
+	 */
 	static Tuple2<Double, Double> structuralEMStep(
 			final TransactionDatabase transactions,
-			final InferenceAlgorithm inferenceAlgorithm, final Itemset candidate) {
+			final InferenceAlgorithm inferenceAlgorithm,
+			final Itemset candidate, final int sampleSize) {
+		transactions.countEvaluation();
 		final double noTransactions = transactions.size();
+		final ItemsetProbabilities probs = transactions.getProbabilities()
+				.with(candidate, 1.0);
+
+		// Screen candidate on a sample (rejecting it if confidently worse)
+		if (sampleSize > 0) {
+			final JavaPairRDD<Integer, Transaction> supported = transactions
+					.getTransactionRDD().filter(t -> t.contains(candidate))
+					.keyBy(CandidateScreen::getStratum);
+			final Map<Integer, Tuple2<Long, Integer>> stratumSizesWithWeights = supported
+					.mapValues(t -> new Tuple2<Long, Integer>(1L, t.getWeight()))
+					.reduceByKey(
+							(a, b) -> new Tuple2<Long, Integer>(a._1 + b._1, a._2
+									+ b._2)).collectAsMap();
+			final Map<Integer, Long> stratumSizes = new HashMap<>();
+			long noSupported = 0;
+			int cacheCount = 0;
+			for (final Map.Entry<Integer, Tuple2<Long, Integer>> entry : stratumSizesWithWeights
+					.entrySet()) {
+				stratumSizes.put(entry.getKey(), entry.getValue()._1);
+				noSupported += entry.getValue()._1;
+				cacheCount += entry.getValue()._2;
+			}
+			if (noSupported > sampleSize) {
+				// Sampling fractions of the strata (boxed as Spark expects)
+				final Map<Integer, Object> fractions = new HashMap<>();
+				for (final Map.Entry<Integer, Long> entry : stratumSizes
+						.entrySet())
+					fractions.put(entry.getKey(), CandidateScreen
+							.getStratumSampleSize(entry.getValue(),
+									noSupported, sampleSize)
+							/ (double) entry.getValue());
+				final List<Transaction> sampled = supported
+						.sampleByKey(false, fractions, candidate.hashCode())
+						.values().collect();
+				final long[][] coverings = EMStep.inferChunks(sampled,
+						inferenceAlgorithm, probs, candidate);
+				final List<TransactionOverlay> sample = new ArrayList<>();
+				for (int i = 0; i < sampled.size(); i++) {
+					final TransactionOverlay overlay = sampled.get(i).overlay(
+							candidate);
+					overlay.setCovering(coverings[i]);
+					sample.add(overlay);
+				}
+				final double lowerBound = CandidateScreen.getLowerBound(
+						transactions, candidate, cacheCount, sample,
+						stratumSizes, new Random(candidate.hashCode()));
+				final boolean rejected = lowerBound >= transactions
+						.getAverageCost();
+				transactions.countScreenedCandidate(rejected);
+				if (rejected)
+					return new Tuple2<Double, Double>(lowerBound, 0.);
+			}
+		}
 
 		// E-step: map candidate to supported transactions and cache covering
-		final JavaPairRDD<Transaction, Set<Itemset>> transactionWithCovering = transactions
-				.getTransactionRDD()
-				.mapToPair(
-						t -> {
-							if (t.contains(candidate)) {
-								t.addItemsetCache(candidate, 1.0);
-								final HashSet<Itemset> covering = inferenceAlgorithm
-										.infer(t);
-								t.setTempCachedCovering(covering);
-								return new Tuple2<Transaction, Set<Itemset>>(t,
-										covering);
-							}
-							return new Tuple2<Transaction, Set<Itemset>>(t, t
-									.getCachedCovering());
-						});
+		// (chunk by chunk)
+		final JavaPairRDD<Transaction, long[]> transactionWithCovering = transactions
+				.getTransactionRDD().mapPartitionsToPair(
+						partition -> inferChunks(partition, inferenceAlgorithm,
+								probs, candidate));
 
 		// E-step: reduce and get itemset counts
-		final List<Tuple2<Itemset, Integer>> coveringWithCounts = transactionWithCovering
-				.values().flatMap(s -> s)
-				.mapToPair(s -> new Tuple2<Itemset, Integer>(s, 1))
-				.reduceByKey((a, b) -> a + b).collect();
+		final List<Tuple2<Integer, Integer>> coveringWithCounts = countCoverings(
+				transactionWithCovering, probs);
 
 		// M-step
-		final Map<Itemset, Double> newItemsets = coveringWithCounts
-				.parallelStream().collect(
-						Collectors
-								.toMap(Tuple2::_1, t -> t._2 / noTransactions));
+		final ItemsetProbabilities newProbs = probs.next(getProbabilities(
+				coveringWithCounts, noTransactions));
 
 		// Get cost per transaction
 		final JavaPairRDD<Transaction, Double> transactionWithCost = transactionWithCovering
 				.keys().mapToPair(t -> {
 					double cost;
 					if (t.contains(candidate))
-						cost = t.getTempCachedCost(newItemsets);
+						cost = t.getTempCachedCost(newProbs) * t.getWeight();
 					else
-						cost = t.getCachedCost(newItemsets);
+						cost = t.getCachedCost(newProbs) * t.getWeight();
+
+					// Keep the temp. covering for the candidate being added
+					// back last (see addAcceptedCandidateCache)
+					final long[] tempCovering = t.getTempCachedCovering();
 					t.removeItemsetCache(candidate);
+					t.setTempCachedCovering(tempCovering);
 					return new Tuple2<Transaction, Double>(t, cost);
 				});
 
@@ -142,9 +211,7 @@ public class SparkEMStep {
 				/ noTransactions;
 
 		// Get candidate prob
-		Double prob = newItemsets.get(candidate);
-		if (prob == null)
-			prob = 0.;
+		final double prob = newProbs.get(candidate);
 
 		// Update cache reference
 		transactions.updateTransactionCache(transactionWithCost.keys());
@@ -157,46 +224,129 @@ public class SparkEMStep {
 			final TransactionDatabase transactions, final Itemset candidate,
 			final double prob) {
 		final double noTransactions = transactions.size();
+		final ItemsetProbabilities probs = transactions.getProbabilities()
+				.with(candidate, prob);
 
 		// Cached E-step: map candidate to supported transactions and cache
-		final JavaPairRDD<Transaction, Set<Itemset>> transactionWithCovering = transactions
+		final JavaPairRDD<Transaction, long[]> transactionWithCovering = transactions
 				.getTransactionRDD().mapToPair(
 						t -> {
 							if (t.contains(candidate)) {
-								t.addItemsetCache(candidate, prob);
-								final HashSet<Itemset> covering = t
+								t.addItemsetCache(candidate, probs);
+								final long[] covering = t
 										.getTempCachedCovering();
 								t.setCachedCovering(covering);
-								return new Tuple2<Transaction, Set<Itemset>>(t,
+								return new Tuple2<Transaction, long[]>(t,
 										covering);
 							}
-							return new Tuple2<Transaction, Set<Itemset>>(t, t
+							return new Tuple2<Transaction, long[]>(t, t
 									.getCachedCovering());
 						});
 
 		// E-step: reduce and get itemset counts
-		final List<Tuple2<Itemset, Integer>> coveringWithCounts = transactionWithCovering
-				.values().flatMap(s -> s)
-				.mapToPair(s -> new Tuple2<Itemset, Integer>(s, 1))
-				.reduceByKey((a, b) -> a + b).collect();
-
-		// M-step
-		final Map<Itemset, Double> newItemsets = coveringWithCounts
-				.parallelStream().collect(
-						Collectors
-								.toMap(Tuple2::_1, t -> t._2 / noTransactions));
-
-		// Update cached itemsets
-		final JavaRDD<Transaction> updatedTransactions = transactionWithCovering
-				.keys().map(t -> {
-					t.updateCachedItemsets(newItemsets);
-					return t;
-				});
+		final List<Tuple2<Integer, Integer>> coveringWithCounts = countCoverings(
+				transactionWithCovering, probs);
+
+		// M-step (caches drop zero probability itemsets lazily)
+		final ItemsetProbabilities newProbs = probs.next(getProbabilities(
+				coveringWithCounts, noTransactions));
+		transactions.setProbabilities(newProbs);
+		transactions.setCoveringCounts(getCounts(coveringWithCounts));
+
+		// Update cache counts
+		final int[] cacheCounts = transactions.getCacheCounts();
+		final int[] newCacheCounts = Arrays.copyOf(cacheCounts,
+				Math.max(cacheCounts.length, candidate.getId() + 1));
+		newCacheCounts[candidate.getId()] = transactionWithCovering.keys()
+				.filter(t -> t.contains(candidate)).map(t -> t.getWeight())
+				.fold(0, (a, b) -> a + b);
+		transactions.setCacheCounts(newCacheCounts);
 
 		// Update cache reference
-		transactions.updateTransactionCache(updatedTransactions);
+		transactions.updateTransactionCache(transactionWithCovering.keys());
+
+		return newProbs.toMap();
+	}
+
+	/**
+	 * Infer and cache the coverings of a partition's transactions in chunks
+	 * of {@link InferenceAlgorithms#CHUNK_SIZE}, reusing one covering buffer.
+	 * If the candidate is not null, it is cached and the temp. covering
+	 * inferred for the transactions that contain it, the others keeping their
+	 * cached covering.
+	 */
+	private static List<Tuple2<Transaction, long[]>> inferChunks(
+			final Iterator<Transaction> partition,
+			final InferenceAlgorithm inferenceAlgorithm,
+			final ItemsetProbabilities probs, final Itemset candidate) {
+		final List<Tuple2<Transaction, long[]>> transactionsWithCovering = new ArrayList<>();
+		final List<Transaction> chunk = new ArrayList<>();
+		final long[][] coverings = new long[InferenceAlgorithms.CHUNK_SIZE][];
+		while (partition.hasNext()) {
+			final Transaction t = partition.next();
+			if (candidate == null) {
+				chunk.add(t);
+			} else if (t.contains(candidate)) {
+				t.addItemsetCache(candidate, probs);
+				chunk.add(t);
+			} else {
+				transactionsWithCovering.add(new Tuple2<Transaction, long[]>(
+						t, t.getCachedCovering()));
+			}
+
+			if (chunk.size() == InferenceAlgorithms.CHUNK_SIZE
+					|| (!partition.hasNext() && !chunk.isEmpty())) {
+				inferenceAlgorithm.inferChunk(chunk, probs, null, coverings, 0);
+				for (int k = 0; k < chunk.size(); k++) {
+					if (candidate == null)
+						chunk.get(k).setCachedCovering(coverings[k]);
+					else
+						chunk.get(k).setTempCachedCovering(coverings[k]);
+					transactionsWithCovering.add(new Tuple2<Transaction, long[]>(
+							chunk.get(k), coverings[k]));
+				}
+				chunk.clear();
+			}
+		}
+		return transactionsWithCovering;
+	}
+
+	/**
+	 * Reduce coverings to the (weighted) number of coverings each itemset ID
+	 * is in
+	 */
+	private static List<Tuple2<Integer, Integer>> countCoverings(
+			final JavaPairRDD<Transaction, long[]> transactionWithCovering,
+			final ItemsetProbabilities probs) {
+		return transactionWithCovering
+				.flatMapToPair(tc -> {
+					final List<Tuple2<Integer, Integer>> counts = new ArrayList<>();
+					for (int i = SetKernels.nextSetBit(tc._2, 0); i >= 0; i = SetKernels
+							.nextSetBit(tc._2, i + 1))
+						counts.add(new Tuple2<Integer, Integer>(tc._1
+								.getItemset(i, probs, null).getId(), tc._1
+								.getWeight()));
+					return counts;
+				}).reduceByKey((a, b) -> a + b).collect();
+	}
+
+	/** Get the covering counts indexed by itemset ID */
+	private static int[] getCounts(
+			final List<Tuple2<Integer, Integer>> coveringWithCounts) {
+		final int[] counts = new int[ItemsetRegistry.getInstance().size()];
+		for (final Tuple2<Integer, Integer> idWithCount : coveringWithCounts)
+			counts[idWithCount._1] = idWithCount._2;
+		return counts;
+	}
 
-		return newItemsets;
+	/** Get the relative covering counts indexed by itemset ID */
+	private static double[] getProbabilities(
+			final List<Tuple2<Integer, Integer>> coveringWithCounts,
+			final double noTransactions) {
+		final double[] probs = new double[ItemsetRegistry.getInstance().size()];
+		for (final Tuple2<Integer, Integer> idWithCount : coveringWithCounts)
+			probs[idWithCount._1] = idWithCount._2 / noTransactions;
+		return probs;
 	}
 
 	private SparkEMStep() {
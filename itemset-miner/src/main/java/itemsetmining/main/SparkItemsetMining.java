@@ -1,10 +1,12 @@
 package itemsetmining.main;
 
+import itemsetmining.itemset.ItemDictionary;
 import itemsetmining.itemset.Itemset;
 import itemsetmining.itemset.ItemsetTree;
-import itemsetmining.main.InferenceAlgorithms.InferGreedy;
 import itemsetmining.main.InferenceAlgorithms.InferenceAlgorithm;
+import itemsetmining.transaction.ItemsetCache;
 import itemsetmining.transaction.Transaction;
+import itemsetmining.transaction.TransactionFormat;
 import itemsetmining.transaction.TransactionRDD;
 import itemsetmining.util.Logging;
 
@@ -12,8 +14,10 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.logging.Level;
@@ -67,13 +71,34 @@ public class SparkItemsetMining extends ItemsetMiningCore {
 
 		@Parameter(names = { "-v", "--verbose" }, description = "Print to console instead of logfile")
 		private boolean verbose = false;
+
+		@Parameter(names = { "--cache" }, description = "Itemset cache layout (MAP or ARRAY)", converter = CacheLayoutConverter.class)
+		ItemsetCache.Layout cacheLayout = ItemsetCache.Layout.MAP;
+
+		@Parameter(names = { "--implicit-singletons" }, description = "Read singletons from a global table instead of caching them")
+		boolean implicitSingletons = false;
+
+		@Parameter(names = { "--sample-size" }, description = "Screen candidates on a stratified sample of this many supporting transactions (0 to disable)")
+		int sampleSize = 0;
+
+		@Parameter(names = { "--prune-heuristic" }, description = "Skip candidates whose estimated best-case cost saving cannot improve the cost (a heuristic, so the mined itemsets can change)")
+		boolean pruneHeuristic = false;
+
+		@Parameter(names = { "--inference" }, description = "Inference algorithm (GREEDY, PRIMAL_DUAL, EXACT or HYBRID)", converter = InferenceTypeConverter.class)
+		InferenceAlgorithms.Type inference = InferenceAlgorithms.Type.GREEDY;
+
+		@Parameter(names = { "--exact-max-items" }, description = "Hybrid inference: max. items of transactions to infer exactly")
+		int exactMaxItems = 8;
+
+		@Parameter(names = { "--primal-dual-min-items" }, description = "Hybrid inference: min. items of transactions to infer by primal-dual")
+		int primalDualMinItems = 64;
+
+		@Parameter(names = { "--calibrate-inference" }, description = "Hybrid inference: set the item thresholds by timing each algorithm on a sample of transactions")
+		boolean calibrateInference = false;
 	}
 
 	public static void main(final String[] args) throws IOException {
 
-		// Use greedy inference algorithm for Spark
-		final InferenceAlgorithm inferenceAlg = new InferGreedy();
-
 		final Parameters params = new Parameters();
 		final JCommander jc = new JCommander(params);
 
@@ -88,6 +113,14 @@ public class SparkItemsetMining extends ItemsetMiningCore {
 			// Set loglevel, runtime, timestamp and log file
 			LOG_LEVEL = params.logLevel;
 			MAX_RUNTIME = params.maxRunTime * 60 * 1_000;
+			CACHE_LAYOUT = params.cacheLayout;
+			IMPLICIT_SINGLETONS = params.implicitSingletons;
+			SAMPLE_SIZE = params.sampleSize;
+			PRUNE_HEURISTIC = params.pruneHeuristic;
+			CALIBRATE_INFERENCE = params.calibrateInference;
+			final InferenceAlgorithm inferenceAlg = InferenceAlgorithms
+					.getInferenceAlgorithm(params.inference,
+							params.exactMaxItems, params.primalDualMinItems);
 			File logFile = null; 
 			if(!params.verbose)
 			      logFile = Logging.getLogFileName("IIM",
@@ -122,7 +155,8 @@ public class SparkItemsetMining extends ItemsetMiningCore {
 		logger.info("\n Inputs: -f " + inputFile + " -s " + maxStructureSteps
 				+ " -i " + maxEMIterations + " -c "
 				+ sc.getLocalProperty("spark.cores.max") + " -r " + MAX_RUNTIME
-				/ 60_000 + "\n");
+				/ 60_000 + " --cache " + CACHE_LAYOUT
+				+ (IMPLICIT_SINGLETONS ? " --implicit-singletons" : "") + "\n");
 
 		// Load Spark and HDFS Properties
 		Properties prop = new Properties();
@@ -140,40 +174,55 @@ public class SparkItemsetMining extends ItemsetMiningCore {
 			e.printStackTrace();
 		}
 
-		// Read in transaction database
+		// Determine most frequent singletons
 		final int noCores = Integer.parseInt(sc.getConf()
 				.get("spark.cores.max"));
-		final JavaRDD<Transaction> db = sc.textFile(datasetPath, 2 * noCores)
-				.map(new ParseTransaction()).cache();
-
-		// Determine most frequent singletons
-		final Map<Integer, Integer> singletonsMap = db.flatMap(t -> t)
-				.mapToPair(i -> new Tuple2<Integer, Integer>(i, 1))
-				.reduceByKey((a, b) -> a + b).collectAsMap();
+		final JavaRDD<String> lines = sc.textFile(datasetPath, 2 * noCores);
+		final Map<Integer, Integer> singletonsMap = lines
+				.flatMapToPair(l -> {
+					final int count = TransactionFormat.getCount(l);
+					final List<Tuple2<Integer, Integer>> items = new ArrayList<>();
+					for (final int i : TransactionFormat.getDistinctItems(l))
+						items.add(new Tuple2<Integer, Integer>(i, count));
+					return items;
+				}).reduceByKey((a, b) -> a + b).collectAsMap();
 
 		// Convert singletons map to Multiset (as Spark map is not serializable)
-		final Multiset<Integer> singletons = HashMultiset.create();
+		// and rank items by support
+		final Multiset<Integer> rawSingletons = HashMultiset.create();
 		for (final Entry<Integer, Integer> entry : singletonsMap.entrySet())
-			singletons.add(entry.getKey(), entry.getValue());
+			rawSingletons.add(entry.getKey(), entry.getValue());
+		final ItemDictionary dictionary = new ItemDictionary(rawSingletons);
+
+		// Read in transaction database (collapsing identical transactions
+		// into one weighted transaction)
+		final JavaRDD<Transaction> db = lines
+				.map(new ParseTransaction(dictionary))
+				.mapToPair(t -> new Tuple2<Transaction, Transaction>(t, t))
+				.reduceByKey((t1, t2) -> {
+					t1.setWeight(t1.getWeight() + t2.getWeight());
+					return t1;
+				}).values().cache();
 
 		// Apply the algorithm to build the itemset tree
-		final ItemsetTree tree = new ItemsetTree(singletons);
+		final ItemsetTree tree = new ItemsetTree(dictionary);
 		tree.buildTree(datasetPath, hdfs);
 		if (LOG_LEVEL.equals(Level.FINE))
 			tree.printStatistics(logger);
 
 		// Run inference to find interesting itemsets
-		final TransactionRDD transactions = new TransactionRDD(db, db.count());
+		final TransactionRDD transactions = new TransactionRDD(db, db.map(
+				t -> (long) t.getWeight()).reduce((a, b) -> a + b));
 		logger.fine("\n============= ITEMSET INFERENCE =============\n");
 		final HashMap<Itemset, Double> itemsets = structuralEM(transactions,
-				singletons, tree, inferenceAlg, maxStructureSteps,
+				dictionary, tree, inferenceAlg, maxStructureSteps,
 				maxEMIterations);
 
-		// Sort itemsets by interestingness
-		final HashMap<Itemset, Double> intMap = calculateInterestingness(
-				itemsets, transactions, tree);
-		final Map<Itemset, Double> sortedItemsets = sortItemsets(itemsets,
-				intMap);
+		// Sort itemsets by interestingness (using the original items)
+		final HashMap<Itemset, Double> intMap = dictionary
+				.decode(calculateInterestingness(itemsets, transactions, tree));
+		final Map<Itemset, Double> sortedItemsets = sortItemsets(
+				dictionary.decode(itemsets), intMap);
 
 		logger.info("\n============= INTERESTING ITEMSETS =============\n");
 		for (final Entry<Itemset, Double> entry : sortedItemsets.entrySet()) {
@@ -234,22 +283,50 @@ public class SparkItemsetMining extends ItemsetMiningCore {
 			Function<String, Transaction> {
 		private static final long serialVersionUID = -9092218383491621520L;
 
+		private final ItemDictionary dictionary;
+
+		public ParseTransaction(final ItemDictionary dictionary) {
+			this.dictionary = dictionary;
+		}
+
 		@Override
 		public Transaction call(final String line) {
 
 			// create a structure for storing the transaction
 			final Transaction transaction = new Transaction();
+			transaction.setWeight(TransactionFormat.getCount(line));
+
+			// split the transaction into items and add their IDs
+			transaction.add(dictionary.encode(TransactionFormat
+					.getItems(line)));
 
-			// split the transaction into items
-			final String[] lineSplit = line.split(" ");
+			return transaction;
+		}
+	}
 
-			// for each item in the transaction
-			for (int i = 0; i < lineSplit.length; i++) {
-				// convert the item to integer and add it to the structure
-				transaction.add(Integer.parseInt(lineSplit[i]));
+	/** Convert string to itemset cache layout */
+	public static class CacheLayoutConverter implements
+			IStringConverter<ItemsetCache.Layout> {
+		@Override
+		public ItemsetCache.Layout convert(final String value) {
+			try {
+				return ItemsetCache.Layout.valueOf(value.toUpperCase());
+			} catch (final IllegalArgumentException e) {
+				throw new RuntimeException("Incorrect Cache Layout.");
 			}
+		}
+	}
 
-			return transaction;
+	/** Convert string to inference algorithm type */
+	public static class InferenceTypeConverter implements
+			IStringConverter<InferenceAlgorithms.Type> {
+		@Override
+		public InferenceAlgorithms.Type convert(final String value) {
+			try {
+				return InferenceAlgorithms.Type.valueOf(value.toUpperCase());
+			} catch (final IllegalArgumentException e) {
+				throw new RuntimeException("Incorrect Inference Algorithm.");
+			}
 		}
 	}
 
@@ -0,0 +1,31 @@
+package itemsetmining.transaction;
+
+import itemsetmining.itemset.Itemset;
+
+/**
+ * Itemset cache stored as just the array of itemsets, which is searched
+ * linearly (comparing references first, as itemsets are interned) when adding
+ * or removing an itemset. This avoids the boxed entries and hash table of
+ * {@link MapItemsetCache}.
+ */
+class ArrayItemsetCache extends ItemsetCache {
+	private static final long serialVersionUID = -4573716095624542364L;
+
+	@Override
+	int indexOf(final Itemset set) {
+		for (int i = 0; i < size; i++) {
+			if (itemsets[i] == set || itemsets[i].equals(set))
+				return i;
+		}
+		return -1;
+	}
+
+	@Override
+	void indexAdded(final int index) {
+	}
+
+	@Override
+	void reindex() {
+	}
+
+}
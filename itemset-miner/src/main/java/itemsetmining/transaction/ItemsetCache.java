@@ -0,0 +1,250 @@
+package itemsetmining.transaction;
+
+import itemsetmining.itemset.Itemset;
+import itemsetmining.itemset.ItemsetProbabilities;
+import itemsetmining.itemset.SetKernels;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Cache of the itemsets supported by a transaction and of the transaction's
+ * current and temporary coverings. Probabilities are not cached, they are
+ * read from the shared {@link ItemsetProbabilities}.
+ * <p>
+ * Cached itemsets are accessed by index in the order they were added, which
+ * only changes when itemsets are removed. Coverings are bitmasks over the
+ * transaction's itemset indices (see {@link Transaction#getItemset}): the
+ * implicit singletons, if any, followed by the cached itemsets. Removing
+ * itemsets removes their bits, so coverings stay in step with the cache.
+ * Coverings are never modified in place, so they can be shared.
+ */
+public abstract class ItemsetCache implements Serializable {
+	private static final long serialVersionUID = -6211594326893620133L;
+
+	private static final Itemset[] NO_ITEMSETS = new Itemset[0];
+	private static final long[] EMPTY = new long[0];
+
+	/** Memory layout of the itemset cache */
+	public enum Layout {
+		/** Array of itemsets with a hash index */
+		MAP,
+		/** Array of itemsets (searched linearly) */
+		ARRAY;
+
+		/** Create an empty cache with this layout */
+		public ItemsetCache create() {
+			if (this == ARRAY)
+				return new ArrayItemsetCache();
+			return new MapItemsetCache();
+		}
+
+		/**
+		 * Create an empty cache with this layout, optionally with implicit
+		 * singletons (i.e. read from the singleton table of the
+		 * {@link ItemsetProbabilities} for the transaction's items)
+		 */
+		public ItemsetCache create(final boolean implicitSingletons) {
+			final ItemsetCache cache = create();
+			cache.implicitSingletons = implicitSingletons;
+			return cache;
+		}
+	}
+
+	/** Version of the probabilities zero probability itemsets were dropped for */
+	private int prunedVersion = -1;
+
+	/**
+	 * Whether singletons are implied by the transaction's items instead of
+	 * being cached
+	 */
+	boolean implicitSingletons = false;
+
+	/** Index of the first cached itemset (i.e. no. implicit singletons) */
+	int offset = 0;
+
+	/**
+	 * Cached itemsets (in the order they were added). These are references
+	 * rather than registry IDs, as Spark executors do not have the driver's
+	 * registry to look IDs up in (and a compressed reference is no larger).
+	 */
+	Itemset[] itemsets = NO_ITEMSETS;
+	int size = 0;
+
+	/** Cached coverings for this transaction */
+	private long[] covering = EMPTY;
+	private long[] tempCovering = EMPTY;
+
+	/** Whether singletons are implied by the transaction's items */
+	public boolean hasImplicitSingletons() {
+		return implicitSingletons;
+	}
+
+	/** Number of cached itemsets */
+	public int size() {
+		return size;
+	}
+
+	/** Get the cached itemset at the given index */
+	public Itemset getItemset(final int index) {
+		return itemsets[index];
+	}
+
+	/** Index of the given itemset in the cache, or -1 */
+	abstract int indexOf(Itemset set);
+
+	/** Index the itemset just added at the given index */
+	abstract void indexAdded(int index);
+
+	/** Rebuild the index after itemsets have been removed */
+	abstract void reindex();
+
+	/**
+	 * Drop itemsets with zero probability, unless already done for this
+	 * version of the probabilities (synchronized as concurrent candidate
+	 * evaluations may read the same cache)
+	 */
+	synchronized void prune(final ItemsetProbabilities probs) {
+		if (probs.getVersion() != prunedVersion) {
+			removeZeroProbability(probs);
+			prunedVersion = probs.getVersion();
+		}
+	}
+
+	/**
+	 * Remove itemsets with zero probability and their covering bits
+	 * (preserving iteration order)
+	 */
+	private void removeZeroProbability(final ItemsetProbabilities probs) {
+		int newSize = 0;
+		long[] newCovering = covering;
+		long[] newTempCovering = tempCovering;
+		for (int i = 0; i < size; i++) {
+			if (probs.get(itemsets[i]) == 0) {
+				if (newCovering == covering)
+					newCovering = covering.clone();
+				if (newTempCovering == tempCovering)
+					newTempCovering = tempCovering.clone();
+				continue;
+			}
+			if (newSize != i) {
+				itemsets[newSize] = itemsets[i];
+				moveBit(newCovering, offset + i, offset + newSize);
+				moveBit(newTempCovering, offset + i, offset + newSize);
+			}
+			newSize++;
+		}
+		if (newSize == size)
+			return;
+		for (int i = newSize; i < size; i++) {
+			itemsets[i] = null;
+			moveBit(newCovering, -1, offset + i);
+			moveBit(newTempCovering, -1, offset + i);
+		}
+		size = newSize;
+		covering = newCovering;
+		tempCovering = newTempCovering;
+		reindex();
+	}
+
+	/**
+	 * Get cost of the covering (or temporary covering) for the given
+	 * probabilities, skipping itemsets with zero probability
+	 */
+	double getCost(final ItemsetProbabilities probs, final boolean temp) {
+		final long[] covering = temp ? tempCovering : this.covering;
+		double totalCost = 0;
+		for (int i = 0; i < size; i++) {
+			if (probs.get(itemsets[i]) != 0) {
+				if (SetKernels.get(covering, offset + i))
+					totalCost += probs.getCoveringCost(itemsets[i]);
+				else
+					totalCost += probs.getNonCoveringCost(itemsets[i]);
+			}
+		}
+		return totalCost;
+	}
+
+	/**
+	 * Check if the itemset at the given index is in the covering (or
+	 * temporary covering)
+	 */
+	boolean inCovering(final int index, final boolean temp) {
+		return SetKernels.get(temp ? tempCovering : covering, index);
+	}
+
+	/** Add the given itemset (at the end) if not present */
+	void add(final Itemset set) {
+		if (indexOf(set) >= 0)
+			return;
+		if (size == itemsets.length)
+			itemsets = Arrays.copyOf(itemsets, Math.max(4, size + (size >> 1)));
+		itemsets[size++] = set;
+		indexAdded(size - 1);
+	}
+
+	/** Remove the given itemset (and its covering bits) if present */
+	void remove(final Itemset set) {
+		final int index = indexOf(set);
+		if (index < 0)
+			return;
+		System.arraycopy(itemsets, index + 1, itemsets, index, size - index - 1);
+		itemsets[--size] = null;
+		covering = removeBit(covering, offset + index);
+		tempCovering = removeBit(tempCovering, offset + index);
+		reindex();
+	}
+
+	void setCovering(final long[] covering) {
+		this.covering = covering;
+	}
+
+	long[] getCovering() {
+		return covering;
+	}
+
+	void setTempCovering(final long[] covering) {
+		tempCovering = covering;
+	}
+
+	long[] getTempCovering() {
+		return tempCovering;
+	}
+
+	/** Get the cached itemsets with their given probabilities as a map */
+	HashMap<Itemset, Double> toMap(final ItemsetProbabilities probs) {
+		final HashMap<Itemset, Double> map = new HashMap<>();
+		for (int i = 0; i < size; i++)
+			map.put(itemsets[i], probs.get(itemsets[i]));
+		return map;
+	}
+
+	/** Set bit to (at most bit from) to bit from (clear if from < 0) */
+	private static void moveBit(final long[] mask, final int from,
+			final int to) {
+		if (to >>> 6 >= mask.length)
+			return;
+		if (from >= 0 && SetKernels.get(mask, from))
+			mask[to >>> 6] |= 1L << to;
+		else
+			mask[to >>> 6] &= ~(1L << to);
+	}
+
+	/** Get a copy of the mask without the given bit (shifting the rest down) */
+	private static long[] removeBit(final long[] mask, final int index) {
+		final int word = index >>> 6;
+		if (word >= mask.length)
+			return mask;
+		final long[] newMask = mask.clone();
+		final long lowBits = (1L << index) - 1;
+		newMask[word] = (mask[word] & lowBits)
+				| ((mask[word] >>> 1) & ~lowBits);
+		for (int w = word + 1; w < mask.length; w++) {
+			newMask[w - 1] |= mask[w] << 63;
+			newMask[w] = mask[w] >>> 1;
+		}
+		return newMask;
+	}
+
+}
@@ -0,0 +1,35 @@
+package itemsetmining.transaction;
+
+import itemsetmining.itemset.Itemset;
+
+import java.util.HashMap;
+
+/**
+ * Itemset cache stored as the array of itemsets with a hash index of their
+ * positions, so adding or removing an itemset need not search the array.
+ */
+class MapItemsetCache extends ItemsetCache {
+	private static final long serialVersionUID = 5316286911853290612L;
+
+	/** Index of each cached itemset */
+	private final HashMap<Itemset, Integer> indices = new HashMap<>();
+
+	@Override
+	int indexOf(final Itemset set) {
+		final Integer index = indices.get(set);
+		return index == null ? -1 : index;
+	}
+
+	@Override
+	void indexAdded(final int index) {
+		indices.put(itemsets[index], index);
+	}
+
+	@Override
+	void reindex() {
+		indices.clear();
+		for (int i = 0; i < size; i++)
+			indices.put(itemsets[i], i);
+	}
+
+}
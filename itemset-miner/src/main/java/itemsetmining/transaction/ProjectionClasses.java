@@ -0,0 +1,172 @@
+package itemsetmining.transaction;
+
+import itemsetmining.itemset.AbstractItemset;
+import itemsetmining.itemset.Itemset;
+import itemsetmining.itemset.ItemsetProbabilities;
+import itemsetmining.itemset.SetKernels;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Equivalence classes of transactions with the same projection onto the items
+ * of the multi-item itemsets (the projected items).
+ * <p>
+ * Transactions in a class support the same multi-item itemsets, and their
+ * other items can only be covered by singletons, which never overlap with any
+ * other itemset. So the covering of one transaction in a class determines the
+ * coverings of all the others (see {@link #shareCovering}).
+ */
+public class ProjectionClasses {
+
+	private final List<Transaction> transactions;
+
+	/** Items of the multi-item itemsets */
+	private final BitSet projectedItems = new BitSet();
+
+	/** Class ID of each projection */
+	private final HashMap<Itemset, Integer> classIds = new HashMap<>();
+
+	/** Class ID of each transaction (indexed by tid) */
+	private final int[] classOf;
+
+	/** First tid of each class (-1 if the class is empty) */
+	private int[] representatives;
+
+	/**
+	 * Constructor (all transactions are in the class of the empty projection)
+	 *
+	 * @param transactions
+	 *            the transactions to partition (tids are their list positions)
+	 */
+	public ProjectionClasses(final List<Transaction> transactions) {
+		this.transactions = transactions;
+		classOf = new int[transactions.size()];
+		classIds.put(new Itemset(), 0);
+		representatives = new int[] { transactions.isEmpty() ? -1 : 0 };
+	}
+
+	/**
+	 * Add the items of the given (accepted) itemset to the projected items,
+	 * splitting the classes of the transactions that contain new items
+	 */
+	public void addItems(final AbstractItemset set, final TidsetIndex index) {
+
+		// Find transactions containing new items
+		final HashSet<Integer> affected = new HashSet<>();
+		for (final int item : set) {
+			if (!projectedItems.get(item)) {
+				projectedItems.set(item);
+				for (final int tid : index
+						.getSupportingTransactions(new Itemset(item)))
+					affected.add(tid);
+			}
+		}
+		if (affected.isEmpty())
+			return;
+
+		// Move them to the class of their new projection
+		for (final int tid : affected) {
+			final Itemset projection = getProjection(transactions.get(tid));
+			Integer classId = classIds.get(projection);
+			if (classId == null) {
+				classId = classIds.size();
+				classIds.put(projection, classId);
+			}
+			classOf[tid] = classId;
+		}
+
+		// Find the new class representatives
+		representatives = new int[classIds.size()];
+		Arrays.fill(representatives, -1);
+		for (int tid = classOf.length - 1; tid >= 0; tid--)
+			representatives[classOf[tid]] = tid;
+	}
+
+	/** Get the projection of the given transaction */
+	private Itemset getProjection(final Transaction transaction) {
+		final int[] items = new int[transaction.size()];
+		int len = 0;
+		for (final int item : transaction) {
+			if (projectedItems.get(item))
+				items[len++] = item;
+		}
+		return new Itemset(Arrays.copyOf(items, len));
+	}
+
+	/** Get the number of classes (some may be empty) */
+	public int size() {
+		return representatives.length;
+	}
+
+	/** Get the class ID of the given transaction */
+	public int getClass(final int tid) {
+		return classOf[tid];
+	}
+
+	/** Get the first tid of the given class (-1 if the class is empty) */
+	public int getRepresentative(final int classId) {
+		return representatives[classId];
+	}
+
+	/**
+	 * Get the covering of a transaction from the covering of another
+	 * transaction in its class (i.e. the same multi-item and projected
+	 * singleton itemsets and the transaction's own singletons with non-zero
+	 * probability). The transaction's itemsets are matched by ID against the
+	 * class covering, so neither cache is searched.
+	 *
+	 * @param candidate
+	 *            candidate overlaid on both transactions (null if none), whose
+	 *            items are treated as projected
+	 */
+	public long[] shareCovering(final Transaction representative,
+			final long[] classCovering, final Transaction transaction,
+			final ItemsetProbabilities probs, final Itemset candidate) {
+
+		// IDs of the class covering's itemsets (sorted for lookup)
+		final int[] classIds = new int[SetKernels.cardinality(classCovering)];
+		int len = 0;
+		for (int i = SetKernels.nextSetBit(classCovering, 0); i >= 0; i = SetKernels
+				.nextSetBit(classCovering, i + 1))
+			classIds[len++] = representative.getItemset(i, probs, candidate)
+					.getId();
+		Arrays.sort(classIds);
+
+		final ItemsetCache cache = transaction.getItemsetCache(probs);
+		final Itemset[] singletons = transaction.getImplicitSingletons(probs);
+		final int noItemsets = singletons.length + cache.size()
+				+ (candidate != null ? 1 : 0);
+		final long[] covering = new long[(noItemsets + 63) >>> 6];
+		for (int i = 0; i < noItemsets; i++) {
+			final Itemset set = i < singletons.length ? singletons[i]
+					: i - singletons.length < cache.size() ? cache
+							.getItemset(i - singletons.length) : candidate;
+			if (isCovered(set, classIds, probs, candidate))
+				covering[i >>> 6] |= 1L << i;
+		}
+		return covering;
+	}
+
+	/**
+	 * Check if an itemset of a transaction is in its covering, given the
+	 * (sorted) IDs of the itemsets in its class covering
+	 */
+	private boolean isCovered(final Itemset set, final int[] classIds,
+			final ItemsetProbabilities probs, final Itemset candidate) {
+		if (set.isEmpty())
+			return false;
+		if (set.size() > 1 || isProjected(set.iterator().next(), candidate))
+			return Arrays.binarySearch(classIds, set.getId()) >= 0;
+		return probs.get(set) != 0;
+	}
+
+	private boolean isProjected(final int item, final AbstractItemset candidate) {
+		return projectedItems.get(item)
+				|| (candidate != null && candidate.contains(item));
+	}
+
+}
@@ -0,0 +1,232 @@
+package itemsetmining.transaction;
+
+import itemsetmining.itemset.AbstractItemset;
+import itemsetmining.itemset.SetKernels;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Vertical index of a transaction database: for each item the IDs (i.e.
+ * list positions) of the transactions that contain it. Like itemsets, each
+ * tidset is stored either as bitset words (dense, for frequent items) or as a
+ * sorted int array (sparse), whichever is smaller.
+ * <p>
+ * The transactions supporting an itemset are found by intersecting the
+ * tidsets of its items, starting with the least frequent item. Supports count
+ * each {@link Transaction} as many times as its weight.
+ */
+public class TidsetIndex {
+
+	/**
+	 * Use bitset words if there is at least one tid per this many bit
+	 * positions (i.e. the bitset is no bigger than the sorted array)
+	 */
+	private static final int DENSE_BITS_PER_TID = 32;
+
+	/** Intersect by binary search if the other tidset is this many times longer */
+	private static final int BINARY_SEARCH_RATIO = 16;
+
+	/** Tidset bitset words for each item (dense layout), null if sparse */
+	private final long[][] words;
+
+	/** Sorted tidset for each item (sparse layout), null if dense */
+	private final int[][] tids;
+
+	/** Number of tids of each item */
+	private final int[] supports;
+
+	/** Weight of each transaction (null if all weights are one) */
+	private final int[] weights;
+
+	/** Weighted support of each item (null if all weights are one) */
+	private final int[] weightedSupports;
+
+	/** Number of indexed transactions */
+	private final int noTransactions;
+
+	/**
+	 * Constructor
+	 *
+	 * @param transactions
+	 *            the transactions to index (IDs are their list positions)
+	 */
+	public TidsetIndex(final List<? extends AbstractItemset> transactions) {
+
+		// Count item supports
+		int maxItem = -1;
+		for (final AbstractItemset transaction : transactions) {
+			for (final int item : transaction)
+				maxItem = Math.max(maxItem, item);
+		}
+		supports = new int[maxItem + 1];
+		for (final AbstractItemset transaction : transactions) {
+			for (final int item : transaction)
+				supports[item]++;
+		}
+
+		// Get transaction weights and weighted supports
+		noTransactions = transactions.size();
+		int[] transactionWeights = null;
+		for (int tid = 0; tid < noTransactions; tid++) {
+			final AbstractItemset transaction = transactions.get(tid);
+			if (transaction instanceof Transaction
+					&& ((Transaction) transaction).getWeight() != 1) {
+				if (transactionWeights == null) {
+					transactionWeights = new int[noTransactions];
+					Arrays.fill(transactionWeights, 1);
+				}
+				transactionWeights[tid] = ((Transaction) transaction)
+						.getWeight();
+			}
+		}
+		weights = transactionWeights;
+		if (weights != null) {
+			weightedSupports = new int[supports.length];
+			for (int tid = 0; tid < noTransactions; tid++) {
+				for (final int item : transactions.get(tid))
+					weightedSupports[item] += weights[tid];
+			}
+		} else {
+			weightedSupports = null;
+		}
+
+		// Choose the smaller layout for each item and fill in the tidsets
+		words = new long[supports.length][];
+		tids = new int[supports.length][];
+		for (int item = 0; item < supports.length; item++) {
+			if (supports[item] > noTransactions / DENSE_BITS_PER_TID)
+				words[item] = new long[(noTransactions + 63) >>> 6];
+			else
+				tids[item] = new int[supports[item]];
+		}
+		final int[] sizes = new int[supports.length];
+		for (int tid = 0; tid < noTransactions; tid++) {
+			for (final int item : transactions.get(tid)) {
+				if (words[item] != null)
+					words[item][tid >>> 6] |= 1L << tid;
+				else
+					tids[item][sizes[item]++] = tid;
+			}
+		}
+	}
+
+	/** Get the (weighted) number of transactions containing the given item */
+	public int getSupport(final int item) {
+		if (item >= supports.length)
+			return 0;
+		return weights == null ? supports[item] : weightedSupports[item];
+	}
+
+	/**
+	 * Get the (weighted) number of transactions containing all items of the
+	 * given itemset
+	 */
+	public int getSupport(final AbstractItemset set) {
+		if (set.size() == 1)
+			return getSupport(set.iterator().next());
+		return getWeight(getSupportingTransactions(set));
+	}
+
+	/** Get the total weight of the given transactions */
+	public int getWeight(final int[] tids) {
+		if (weights == null)
+			return tids.length;
+		int weight = 0;
+		for (final int tid : tids)
+			weight += weights[tid];
+		return weight;
+	}
+
+	/**
+	 * Get the sorted IDs of the transactions containing all items of the
+	 * given itemset
+	 */
+	public int[] getSupportingTransactions(final AbstractItemset set) {
+
+		// Sort items by increasing support (insertion sort, itemsets are short)
+		final int[] items = new int[set.size()];
+		int noItems = 0;
+		for (final int item : set) {
+			if (getSupport(item) == 0)
+				return new int[0];
+			int pos = noItems++;
+			for (; pos > 0 && supports[items[pos - 1]] > supports[item]; pos--)
+				items[pos] = items[pos - 1];
+			items[pos] = item;
+		}
+		if (noItems == 0) {
+			final int[] all = new int[noTransactions];
+			for (int tid = 0; tid < noTransactions; tid++)
+				all[tid] = tid;
+			return all;
+		}
+
+		// Intersect tidsets starting with the least frequent item
+		final int[] result = toArray(items[0]);
+		int len = result.length;
+		for (int i = 1; i < noItems && len > 0; i++) {
+			if (words[items[i]] != null)
+				len = retainAll(result, len, words[items[i]]);
+			else
+				len = retainAll(result, len, tids[items[i]]);
+		}
+		return len == result.length ? result : Arrays.copyOf(result, len);
+	}
+
+	/** Get a copy of the tidset of the given item as a sorted array */
+	private int[] toArray(final int item) {
+		if (tids[item] != null)
+			return tids[item].clone();
+		final int[] array = new int[supports[item]];
+		int i = 0;
+		for (int tid = SetKernels.nextSetBit(words[item], 0); tid >= 0; tid = SetKernels
+				.nextSetBit(words[item], tid + 1))
+			array[i++] = tid;
+		return array;
+	}
+
+	/** Keep the first len tids that are set in the given words (in place) */
+	private static int retainAll(final int[] tids, final int len,
+			final long[] words) {
+		int newLen = 0;
+		for (int i = 0; i < len; i++) {
+			if (SetKernels.get(words, tids[i]))
+				tids[newLen++] = tids[i];
+		}
+		return newLen;
+	}
+
+	/**
+	 * Keep the first len tids that are in the given sorted tidset (in place),
+	 * using binary search if the tidset is much longer
+	 */
+	private static int retainAll(final int[] tids, final int len,
+			final int[] other) {
+		int newLen = 0;
+		if (other.length > BINARY_SEARCH_RATIO * len) {
+			int from = 0;
+			for (int i = 0; i < len; i++) {
+				final int pos = Arrays.binarySearch(other, from, other.length,
+						tids[i]);
+				if (pos >= 0)
+					tids[newLen++] = tids[i];
+				from = pos >= 0 ? pos + 1 : -(pos + 1);
+			}
+		} else {
+			for (int i = 0, j = 0; i < len && j < other.length;) {
+				if (tids[i] < other[j]) {
+					i++;
+				} else if (tids[i] > other[j]) {
+					j++;
+				} else {
+					tids[newLen++] = tids[i];
+					i++;
+					j++;
+				}
+			}
+		}
+		return newLen;
+	}
+
+}
@@ -2,122 +2,301 @@ package itemsetmining.transaction;
 
 import itemsetmining.itemset.AbstractItemset;
 import itemsetmining.itemset.Itemset;
+import itemsetmining.itemset.ItemsetProbabilities;
+import itemsetmining.itemset.SetKernels;
 
 import java.io.Serializable;
-import java.util.BitSet;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.Map.Entry;
-
-import com.google.common.collect.Multiset;
 
 /** A transaction is an ordered list of items */
 public class Transaction extends AbstractItemset implements Serializable {
 	private static final long serialVersionUID = 3327396055332538091L;
 
-	/** Cached itemsets for this transaction */
-	private HashMap<Itemset, Double> cachedItemsets;
+	private static final Itemset[] NO_ITEMSETS = new Itemset[0];
+
+	/** Placeholder for an implicit singleton with zero probability */
+	private static final Itemset NO_SINGLETON = new Itemset();
+
+	/** Cached itemsets and coverings for this transaction */
+	private ItemsetCache cache;
+
+	/** Number of identical transactions this transaction stands for */
+	private int weight = 1;
 
-	/** Cached covering for this transaction */
-	private HashSet<Itemset> cachedCovering;
-	private HashSet<Itemset> tempCachedCovering;
+	public int getWeight() {
+		return weight;
+	}
+
+	public void setWeight(final int weight) {
+		this.weight = weight;
+	}
 
-	public void initializeCachedItemsets(final Multiset<Integer> singletons,
-			final long noTransactions) {
-		cachedItemsets = new HashMap<>();
-		for (final Multiset.Entry<Integer> entry : singletons.entrySet()) {
-			if (this.contains(entry.getElement()))
-				cachedItemsets.put(new Itemset(entry.getElement()),
-						entry.getCount() / (double) noTransactions);
+	/**
+	 * Initialize cached itemsets with the given (interned) singletons, using
+	 * the given cache layout
+	 */
+	public void initializeCachedItemsets(final Collection<Itemset> singletons,
+			final ItemsetCache.Layout layout) {
+		initializeCachedItemsets(singletons, layout, false);
+	}
+
+	/**
+	 * Initialize cached itemsets with the given (interned) singletons, using
+	 * the given cache layout. Implicit singletons are not cached at all.
+	 */
+	public void initializeCachedItemsets(final Collection<Itemset> singletons,
+			final ItemsetCache.Layout layout, final boolean implicitSingletons) {
+		cache = layout.create(implicitSingletons);
+		if (implicitSingletons) {
+			cache.offset = noItems;
+			return;
 		}
+		for (final Itemset set : singletons) {
+			if (this.contains(set))
+				cache.add(set);
+		}
+	}
+
+	/**
+	 * Get the singletons of this transaction's items (by position) if they
+	 * are implicit (i.e. not in the cached itemsets), with an empty itemset
+	 * (which covers nothing) for those with zero probability
+	 */
+	public Itemset[] getImplicitSingletons(final ItemsetProbabilities probs) {
+		if (!cache.hasImplicitSingletons())
+			return NO_ITEMSETS;
+		final Itemset[] singletons = new Itemset[noItems];
+		getImplicitSingletons(probs, singletons);
+		return singletons;
 	}
 
-	public HashMap<Itemset, Double> getCachedItemsets() {
-		return cachedItemsets;
+	/**
+	 * Store the implicit singletons (see above) at the start of the given
+	 * array (of at least {@link #size()} itemsets)
+	 *
+	 * @return the number of implicit singletons (zero if not implicit)
+	 */
+	public int getImplicitSingletons(final ItemsetProbabilities probs,
+			final Itemset[] singletons) {
+		if (!cache.hasImplicitSingletons())
+			return 0;
+		if (words != null) {
+			int pos = 0;
+			for (int item = SetKernels.nextSetBit(words, 0); item >= 0; item = SetKernels
+					.nextSetBit(words, item + 1))
+				singletons[pos++] = getSingleton(item, probs);
+		} else {
+			for (int pos = 0; pos < noItems; pos++)
+				singletons[pos] = getSingleton(sortedItems[pos], probs);
+		}
+		return noItems;
 	}
 
-	public void addItemsetCache(final Itemset candidate, final double prob) {
-		cachedItemsets.put(candidate, prob);
+	private static Itemset getSingleton(final int item,
+			final ItemsetProbabilities probs) {
+		final Itemset set = probs.getSingleton(item);
+		if (set == null || probs.get(set) == 0)
+			return NO_SINGLETON;
+		return set;
 	}
 
-	public void removeItemsetCache(final Itemset candidate) {
-		cachedItemsets.remove(candidate);
-	}
-
-	public void updateCachedItemsets(final Map<Itemset, Double> newItemsets) {
-		for (final Iterator<Entry<Itemset, Double>> it = cachedItemsets
-				.entrySet().iterator(); it.hasNext();) {
-			final Entry<Itemset, Double> entry = it.next();
-			final Double newProb = newItemsets.get(entry.getKey());
-			if (newProb != null)
-				entry.setValue(newProb);
-			else
-				it.remove();
+	/**
+	 * Get the cached itemsets for indexed access, first dropping those with
+	 * zero probability under the given probabilities
+	 */
+	public ItemsetCache getItemsetCache(final ItemsetProbabilities probs) {
+		cache.prune(probs);
+		return cache;
+	}
+
+	/** Drop the cached itemsets and coverings */
+	public void clearItemsetCache() {
+		cache = null;
+	}
+
+	/**
+	 * Get the cached (and implicit) itemsets with their given probabilities
+	 */
+	public HashMap<Itemset, Double> getCachedItemsets(
+			final ItemsetProbabilities probs) {
+		final HashMap<Itemset, Double> itemsets = getItemsetCache(probs)
+				.toMap(probs);
+		for (final Itemset set : getImplicitSingletons(probs)) {
+			if (set != NO_SINGLETON)
+				itemsets.put(set, probs.get(set));
 		}
+		return itemsets;
+	}
+
+	/**
+	 * Add candidate to cached itemsets, first dropping those with zero
+	 * probability under the given probabilities
+	 */
+	public void addItemsetCache(final Itemset candidate,
+			final ItemsetProbabilities probs) {
+		cache.prune(probs);
+		if (!cache.hasImplicitSingletons() || candidate.size() > 1)
+			cache.add(candidate);
+	}
+
+	public void removeItemsetCache(final Itemset candidate) {
+		cache.remove(candidate);
+	}
+
+	/**
+	 * Layer the given candidate over the cached itemsets without modifying
+	 * them (until the overlay is committed)
+	 */
+	public TransactionOverlay overlay(final Itemset candidate) {
+		return new TransactionOverlay(this, candidate);
+	}
+
+	/**
+	 * Get the itemset at the given covering index, i.e. of the implicit
+	 * singletons (by item position) followed by the cached itemsets and the
+	 * candidate (if not null), as laid out for inference
+	 */
+	public Itemset getItemset(final int index,
+			final ItemsetProbabilities probs, final Itemset candidate) {
+		if (index < cache.offset)
+			return probs.getSingleton(getItem(index));
+		if (index - cache.offset < cache.size())
+			return cache.getItemset(index - cache.offset);
+		return candidate;
 	}
 
-	/** Get cost of cached covering for hard EM-step */
-	public double getCachedCost() {
-		double totalCost = 0;
-		for (final Entry<Itemset, Double> entry : cachedItemsets.entrySet()) {
-			if (cachedCovering.contains(entry.getKey()))
-				totalCost += -Math.log(entry.getValue());
-			else
-				totalCost += -Math.log(1 - entry.getValue());
+	/** Get the item at the given position (in increasing order) */
+	private int getItem(final int pos) {
+		if (words == null)
+			return sortedItems[pos];
+		int remaining = pos;
+		for (int w = 0;; w++) {
+			final int count = Long.bitCount(words[w]);
+			if (remaining < count) {
+				long word = words[w];
+				for (; remaining > 0; remaining--)
+					word &= word - 1;
+				return (w << 6) + Long.numberOfTrailingZeros(word);
+			}
+			remaining -= count;
 		}
-		return totalCost;
 	}
 
-	/** Get cost of cached covering for structural EM-step */
-	public double getCachedCost(final Map<Itemset, Double> itemsets) {
-		return calculateCachedCost(itemsets, cachedCovering);
+	/** Get the position of the given item (-1 if not in the transaction) */
+	private int getPosition(final int item) {
+		if (words == null)
+			return Math.max(Arrays.binarySearch(sortedItems, 0, noItems, item),
+					-1);
+		if (!SetKernels.get(words, item))
+			return -1;
+		int pos = Long.bitCount(words[item >>> 6] & ((1L << item) - 1));
+		for (int w = 0; w < item >>> 6; w++)
+			pos += Long.bitCount(words[w]);
+		return pos;
 	}
 
-	/** Get cost of temp. cached covering for structural EM-step */
-	public double getTempCachedCost(final Map<Itemset, Double> itemsets) {
-		return calculateCachedCost(itemsets, tempCachedCovering);
+	/**
+	 * Get the itemsets in the given covering of this transaction (see
+	 * {@link #getItemset})
+	 */
+	public HashSet<Itemset> getCoveringItemsets(final long[] covering,
+			final ItemsetProbabilities probs, final Itemset candidate) {
+		final HashSet<Itemset> itemsets = new HashSet<>();
+		for (int i = SetKernels.nextSetBit(covering, 0); i >= 0; i = SetKernels
+				.nextSetBit(covering, i + 1))
+			itemsets.add(getItemset(i, probs, candidate));
+		return itemsets;
 	}
 
-	/** Calculate cached cost for structural EM-step */
-	private double calculateCachedCost(final Map<Itemset, Double> itemsets,
-			final HashSet<Itemset> covering) {
-		double totalCost = 0;
-		for (final Entry<Itemset, Double> entry : cachedItemsets.entrySet()) {
-			final Itemset set = entry.getKey();
-			final Double prob = itemsets.get(set);
-			if (prob != null) {
-				if (covering.contains(set))
-					totalCost += -Math.log(prob);
-				else
-					totalCost += -Math.log(1 - prob);
+	/**
+	 * Get the covering of this transaction by the given itemsets (ignoring
+	 * those that are neither cached nor implicit)
+	 */
+	public long[] getCovering(final Collection<Itemset> itemsets) {
+		final int noItemsets = cache.offset + cache.size();
+		final long[] covering = new long[(noItemsets + 63) >>> 6];
+		for (final Itemset set : itemsets) {
+			int index;
+			if (cache.hasImplicitSingletons() && set.size() == 1) {
+				index = getPosition(set.iterator().next());
+			} else {
+				index = cache.indexOf(set);
+				if (index >= 0)
+					index += cache.offset;
 			}
+			if (index >= 0)
+				covering[index >>> 6] |= 1L << index;
+		}
+		return covering;
+	}
+
+	/** Get cost of cached covering for the given probabilities */
+	public double getCachedCost(final ItemsetProbabilities probs) {
+		return getCost(probs, false);
+	}
+
+	/** Get cost of temp. cached covering for the given probabilities */
+	public double getTempCachedCost(final ItemsetProbabilities probs) {
+		return getCost(probs, true);
+	}
+
+	/** Get cost of (temp.) cached covering including implicit singletons */
+	private double getCost(final ItemsetProbabilities probs, final boolean temp) {
+		double totalCost = cache.getCost(probs, temp);
+		if (!cache.hasImplicitSingletons())
+			return totalCost;
+		if (words != null) {
+			int pos = 0;
+			for (int item = SetKernels.nextSetBit(words, 0); item >= 0; item = SetKernels
+					.nextSetBit(words, item + 1))
+				totalCost += getSingletonCost(item, pos++, probs, temp);
+		} else {
+			for (int pos = 0; pos < noItems; pos++)
+				totalCost += getSingletonCost(sortedItems[pos], pos, probs,
+						temp);
 		}
 		return totalCost;
 	}
 
-	public void setCachedCovering(final HashSet<Itemset> covering) {
-		cachedCovering = covering;
+	/** Get cost of the implicit singleton at the given position */
+	private double getSingletonCost(final int item, final int pos,
+			final ItemsetProbabilities probs, final boolean temp) {
+		final Itemset singleton = getSingleton(item, probs);
+		if (cache.inCovering(pos, temp))
+			return probs.getCoveringCost(singleton);
+		return probs.getNonCoveringCost(singleton);
+	}
+
+	/** Set the cached covering (as a bitmask, see {@link #getItemset}) */
+	public void setCachedCovering(final long[] covering) {
+		cache.setCovering(covering);
 	}
 
-	public HashSet<Itemset> getCachedCovering() {
-		return cachedCovering;
+	/** Set the cached covering to the given (cached or implicit) itemsets */
+	public void setCachedCovering(final Collection<Itemset> covering) {
+		cache.setCovering(getCovering(covering));
 	}
 
-	public void setTempCachedCovering(final HashSet<Itemset> covering) {
-		tempCachedCovering = covering;
+	public long[] getCachedCovering() {
+		return cache.getCovering();
 	}
 
-	public HashSet<Itemset> getTempCachedCovering() {
-		return tempCachedCovering;
+	public void setTempCachedCovering(final long[] covering) {
+		cache.setTempCovering(covering);
+	}
+
+	public long[] getTempCachedCovering() {
+		return cache.getTempCovering();
 	}
 
 	/**
 	 * Constructor
 	 */
 	public Transaction() {
-		this.items = new BitSet();
+		setItems(new int[0], 0);
 	}
 
 	/**
@@ -127,8 +306,77 @@ public class Transaction extends AbstractItemset implements Serializable {
 	 *            a collection of items that should be added to the transaction
 	 */
 	public Transaction(final int... items) {
-		this.items = new BitSet(items.length);
-		add(items);
+		final int[] sorted = items.clone();
+		setItems(sorted, sortDistinct(sorted));
+	}
+
+	/**
+	 * Add given itemset to this transaction
+	 *
+	 * @param items
+	 *            an itemset that should be added to this transaction
+	 */
+	public void add(final AbstractItemset set) {
+		addItems(set);
+	}
+
+	/**
+	 * Add an item to this transaction
+	 *
+	 * @param item
+	 *            an item that should be added to this transaction
+	 * @return
+	 */
+	@Override
+	public boolean add(final Integer item) {
+		return addItem(item);
+	}
+
+	/**
+	 * Add items to this transaction
+	 *
+	 * @param items
+	 *            a collection of items that should be added to the transaction
+	 */
+	@Override
+	public boolean addAll(final Collection<? extends Integer> items) {
+		boolean changed = false;
+		for (final int item : items)
+			changed |= addItem(item);
+		return changed;
+	}
+
+	/**
+	 * Add items to this transaction
+	 *
+	 * @param items
+	 *            an array of items that should be added to the transaction
+	 */
+	public void add(final int... items) {
+		for (final int item : items)
+			addItem(item);
+	}
+
+	/**
+	 * Add an item to this transaction
+	 *
+	 * @param item
+	 *            an item that should be added to this transaction
+	 * @return true if the item was not already present
+	 */
+	public boolean add(final int item) {
+		return addItem(item);
+	}
+
+	/**
+	 * Remove an item from this transaction
+	 *
+	 * @param item
+	 *            an item that should be removed from this transaction
+	 * @return true if the item was present
+	 */
+	public boolean remove(final int item) {
+		return removeItem(item);
 	}
 
-}
\ No newline at end of file
+}
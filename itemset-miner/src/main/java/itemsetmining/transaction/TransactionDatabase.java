@@ -1,6 +1,9 @@
 package itemsetmining.transaction;
 
+import itemsetmining.itemset.ItemsetProbabilities;
+
 import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.apache.spark.api.java.JavaRDD;
 
@@ -23,6 +26,128 @@ public abstract class TransactionDatabase {
 		return averageCost;
 	}
 
+	/** Itemset probabilities shared by all transactions */
+	private ItemsetProbabilities probabilities;
+
+	/** Set the itemset probabilities */
+	public void setProbabilities(final ItemsetProbabilities probabilities) {
+		this.probabilities = probabilities;
+	}
+
+	/** Get the itemset probabilities */
+	public ItemsetProbabilities getProbabilities() {
+		return probabilities;
+	}
+
+	/** Number of cached coverings each itemset ID is in */
+	private int[] coveringCounts;
+
+	/** Set the covering counts indexed by itemset ID */
+	public void setCoveringCounts(final int[] coveringCounts) {
+		this.coveringCounts = coveringCounts;
+	}
+
+	/** Get the covering counts indexed by itemset ID */
+	public int[] getCoveringCounts() {
+		return coveringCounts;
+	}
+
+	/** Number of transaction caches each itemset ID is in */
+	private int[] cacheCounts;
+
+	/** Set the cache counts indexed by itemset ID */
+	public void setCacheCounts(final int[] cacheCounts) {
+		this.cacheCounts = cacheCounts;
+	}
+
+	/** Get the cache counts indexed by itemset ID */
+	public int[] getCacheCounts() {
+		return cacheCounts;
+	}
+
+	/** Projection classes of the transactions (null if not used) */
+	private ProjectionClasses projectionClasses;
+
+	public void setProjectionClasses(final ProjectionClasses projectionClasses) {
+		this.projectionClasses = projectionClasses;
+	}
+
+	public ProjectionClasses getProjectionClasses() {
+		return projectionClasses;
+	}
+
+	/** Number of hard EM passes over the transactions */
+	private long noEMPasses = 0;
+
+	public void countEMPasses(final int noPasses) {
+		noEMPasses += noPasses;
+	}
+
+	public long getEMPasses() {
+		return noEMPasses;
+	}
+
+	/** Estimated number of hard EM passes saved by SQUAREM acceleration */
+	private double noEMPassesSaved = 0;
+
+	public void countEMPassesSaved(final double noPassesSaved) {
+		noEMPassesSaved += noPassesSaved;
+	}
+
+	public double getEMPassesSaved() {
+		return noEMPassesSaved;
+	}
+
+	/** Number of candidates generated and pruned by the cost heuristic */
+	private long noGeneratedCandidates = 0;
+	private long noPrunedCandidates = 0;
+
+	/** Count a generated candidate */
+	public void countCandidate(final boolean pruned) {
+		noGeneratedCandidates++;
+		if (pruned)
+			noPrunedCandidates++;
+	}
+
+	public long getGeneratedCandidates() {
+		return noGeneratedCandidates;
+	}
+
+	public long getPrunedCandidates() {
+		return noPrunedCandidates;
+	}
+
+	/** Number of candidate evaluations */
+	private final LongAdder noEvaluations = new LongAdder();
+
+	/** Count a candidate evaluation (thread-safe) */
+	public void countEvaluation() {
+		noEvaluations.increment();
+	}
+
+	public long getEvaluations() {
+		return noEvaluations.sum();
+	}
+
+	/** Number of candidates screened on a sample and rejected by the screen */
+	private final LongAdder noScreenedCandidates = new LongAdder();
+	private final LongAdder noRejectedCandidates = new LongAdder();
+
+	/** Count a candidate screened on a sample (thread-safe) */
+	public void countScreenedCandidate(final boolean rejected) {
+		noScreenedCandidates.increment();
+		if (rejected)
+			noRejectedCandidates.increment();
+	}
+
+	public long getScreenedCandidates() {
+		return noScreenedCandidates.sum();
+	}
+
+	public long getRejectedCandidates() {
+		return noRejectedCandidates.sum();
+	}
+
 	public void setIterationLimitExceeded() {
 		iterationLimitExceeded = true;
 	}
@@ -34,6 +159,9 @@ public abstract class TransactionDatabase {
 	/** Get a list of transactions */
 	public abstract List<Transaction> getTransactionList();
 
+	/** Get the vertical tidset index of the transaction list */
+	public abstract TidsetIndex getTidsetIndex();
+
 	/** Get a JavaRDD of transactions */
 	public abstract JavaRDD<Transaction> getTransactionRDD();
 
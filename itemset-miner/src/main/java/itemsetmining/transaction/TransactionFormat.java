@@ -0,0 +1,45 @@
+package itemsetmining.transaction;
+
+import java.util.Arrays;
+
+/**
+ * Format of a transaction line: space separated items, optionally followed by
+ * the number of times the transaction occurs in the database, e.g.
+ *
+ * <pre>
+ * 1 2 3 #COUNT: 5
+ * </pre>
+ */
+public class TransactionFormat {
+
+	/** Separator between the items and the (optional) count */
+	public static final String COUNT_SEPARATOR = " #COUNT: ";
+
+	/** Get the items of the given transaction line */
+	public static String[] getItems(final String line) {
+		final int index = line.indexOf(COUNT_SEPARATOR);
+		return (index < 0 ? line : line.substring(0, index)).split(" ");
+	}
+
+	/**
+	 * Get the distinct items of the given transaction line (in increasing
+	 * order), so an item repeated within the line is only counted once
+	 */
+	public static int[] getDistinctItems(final String line) {
+		return Arrays.stream(getItems(line)).mapToInt(Integer::parseInt)
+				.sorted().distinct().toArray();
+	}
+
+	/** Get the count of the given transaction line (1 if not annotated) */
+	public static int getCount(final String line) {
+		final int index = line.indexOf(COUNT_SEPARATOR);
+		if (index < 0)
+			return 1;
+		return Integer.parseInt(line.substring(
+				index + COUNT_SEPARATOR.length()).trim());
+	}
+
+	private TransactionFormat() {
+	}
+
+}
@@ -98,11 +98,10 @@ public class TransactionGenerator {
 
 		while (backgroundItemsets.size() < noItemsets) {
 			final int len = sizeDist.sample() + 1; // use shifted geometric
-			final Itemset set = new Itemset();
-			for (int i = 0; i < len; i++) {
-				final int samp = itemDist.sample();
-				set.add(samp);
-			}
+			final int[] items = new int[len];
+			for (int i = 0; i < len; i++)
+				items[i] = itemDist.sample();
+			final Itemset set = new Itemset(items);
 			final double num = probDist.sample();
 			backgroundItemsets.put(set, num);
 		}
@@ -1,16 +1,47 @@
 package itemsetmining.transaction;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 
 import org.apache.spark.api.java.JavaRDD;
 
-/** Wrapper class for storing transaction database as a list of transactions */
+/**
+ * Wrapper class for storing transaction database as a list of transactions
+ * <p>
+ * Transactions are weighted by the number of identical transactions they stand
+ * for, so the size of the database is the total weight.
+ */
 public class TransactionList extends TransactionDatabase {
 
 	private final List<Transaction> transactions;
+	private final long noTransactions;
+
+	/** Vertical index of the transactions (built on first use) */
+	private TidsetIndex tidsetIndex;
 
 	public TransactionList(final List<Transaction> transactions) {
 		this.transactions = transactions;
+		long totalWeight = 0;
+		for (final Transaction transaction : transactions)
+			totalWeight += transaction.getWeight();
+		noTransactions = totalWeight;
+	}
+
+	/**
+	 * Collapse identical transactions into one transaction weighted by their
+	 * total weight (keeping the order of first occurrence)
+	 */
+	public static List<Transaction> deduplicate(
+			final List<Transaction> transactions) {
+		final LinkedHashMap<Transaction, Transaction> unique = new LinkedHashMap<>();
+		for (final Transaction transaction : transactions) {
+			final Transaction first = unique.putIfAbsent(transaction,
+					transaction);
+			if (first != null)
+				first.setWeight(first.getWeight() + transaction.getWeight());
+		}
+		return new ArrayList<>(unique.keySet());
 	}
 
 	@Override
@@ -18,6 +49,13 @@ public class TransactionList extends TransactionDatabase {
 		return transactions;
 	}
 
+	@Override
+	public TidsetIndex getTidsetIndex() {
+		if (tidsetIndex == null)
+			tidsetIndex = new TidsetIndex(transactions);
+		return tidsetIndex;
+	}
+
 	@Override
 	public JavaRDD<Transaction> getTransactionRDD() {
 		throw new UnsupportedOperationException("This is a list is not a RDD!!");
@@ -25,7 +63,7 @@ public class TransactionList extends TransactionDatabase {
 
 	@Override
 	public long size() {
-		return transactions.size();
+		return noTransactions;
 	}
 
 	@Override
@@ -0,0 +1,96 @@
+package itemsetmining.transaction;
+
+import itemsetmining.itemset.Itemset;
+import itemsetmining.itemset.ItemsetProbabilities;
+
+/**
+ * A candidate itemset and its tentative covering layered over a transaction's
+ * committed itemset cache. The transaction is only modified on
+ * {@link #commit}, so overlays of different candidates can be evaluated
+ * concurrently and an abandoned evaluation leaves the cache intact.
+ * <p>
+ * The tentative covering is a bitmask over the transaction's itemset indices
+ * with the candidate after the cached itemsets (see
+ * {@link Transaction#getItemset}), which is where committing adds it.
+ */
+public class TransactionOverlay {
+
+	private enum State {
+		PENDING, COMMITTED, ROLLED_BACK
+	}
+
+	private final Transaction transaction;
+	private final Itemset candidate;
+
+	/** Tentative covering (i.e. with the candidate cached) */
+	private long[] covering;
+
+	private State state = State.PENDING;
+
+	TransactionOverlay(final Transaction transaction, final Itemset candidate) {
+		this.transaction = transaction;
+		this.candidate = candidate;
+	}
+
+	/** Get the underlying transaction (whose cache must not be modified) */
+	public Transaction getTransaction() {
+		return transaction;
+	}
+
+	public Itemset getCandidate() {
+		return candidate;
+	}
+
+	/** Set the tentative covering */
+	public void setCovering(final long[] covering) {
+		checkPending();
+		this.covering = covering;
+	}
+
+	/** Get the tentative covering */
+	public long[] getCovering() {
+		return covering;
+	}
+
+	/** Get the committed covering of the underlying transaction */
+	public long[] getCommittedCovering() {
+		return transaction.getCachedCovering();
+	}
+
+	/**
+	 * Add the candidate to the transaction's cache and make the tentative
+	 * covering its cached covering
+	 *
+	 * @return the previously committed covering
+	 */
+	public long[] commit(final ItemsetProbabilities probs) {
+		checkPending();
+		transaction.addItemsetCache(candidate, probs);
+		final long[] oldCovering = transaction.getCachedCovering();
+		transaction.setCachedCovering(covering);
+		state = State.COMMITTED;
+		return oldCovering;
+	}
+
+	/** Discard the candidate and tentative covering */
+	public void rollback() {
+		checkPending();
+		covering = null;
+		state = State.ROLLED_BACK;
+	}
+
+	public boolean isCommitted() {
+		return state == State.COMMITTED;
+	}
+
+	public boolean isRolledBack() {
+		return state == State.ROLLED_BACK;
+	}
+
+	private void checkPending() {
+		if (state != State.PENDING)
+			throw new IllegalStateException("Overlay for " + candidate
+					+ " already " + (isCommitted() ? "committed" : "rolled back"));
+	}
+
+}
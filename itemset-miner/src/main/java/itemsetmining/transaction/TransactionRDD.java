@@ -21,6 +21,11 @@ public class TransactionRDD extends TransactionDatabase {
 		throw new UnsupportedOperationException("This is a RDD not a List!!");
 	}
 
+	@Override
+	public TidsetIndex getTidsetIndex() {
+		throw new UnsupportedOperationException("This is a RDD not a List!!");
+	}
+
 	@Override
 	public JavaRDD<Transaction> getTransactionRDD() {
 		return transactions;
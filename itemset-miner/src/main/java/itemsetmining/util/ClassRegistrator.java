@@ -2,7 +2,11 @@ package itemsetmining.util;
 
 import itemsetmining.itemset.AbstractItemset;
 import itemsetmining.itemset.Itemset;
+import itemsetmining.itemset.ItemsetProbabilities;
+import itemsetmining.main.InferenceAlgorithms.InferExact;
 import itemsetmining.main.InferenceAlgorithms.InferGreedy;
+import itemsetmining.main.InferenceAlgorithms.InferHybrid;
+import itemsetmining.main.InferenceAlgorithms.InferPrimalDual;
 import itemsetmining.transaction.Transaction;
 
 import org.apache.spark.serializer.KryoRegistrator;
@@ -17,7 +21,11 @@ public class ClassRegistrator implements KryoRegistrator {
 		kryo.register(Transaction.class);
 		kryo.register(AbstractItemset.class);
 		kryo.register(Itemset.class);
+		kryo.register(ItemsetProbabilities.class);
 		kryo.register(InferGreedy.class);
+		kryo.register(InferPrimalDual.class);
+		kryo.register(InferExact.class);
+		kryo.register(InferHybrid.class);
 	}
 
 }
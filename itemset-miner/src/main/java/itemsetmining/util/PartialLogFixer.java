@@ -59,10 +59,11 @@ public class PartialLogFixer {
 								"\\{((?:[0-9]|,| )+?)\\}=([-+]?[0-9]*\\.?[0-9]+(?:[eE][-+]?[0-9]+)?)")
 						.matcher(line);
 				while (m.find()) {
-					final Itemset itemset = new Itemset();
 					final String[] items = m.group(1).split(", ");
-					for (final String item : items)
-						itemset.add(Integer.parseInt(item));
+					final int[] itemArray = new int[items.length];
+					for (int i = 0; i < items.length; i++)
+						itemArray[i] = Integer.parseInt(items[i]);
+					final Itemset itemset = new Itemset(itemArray);
 					final double prob = Double.parseDouble(m.group(2));
 					itemsets.put(itemset, prob);
 				}
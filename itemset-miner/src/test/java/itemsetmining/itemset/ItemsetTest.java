@@ -0,0 +1,79 @@
+package itemsetmining.itemset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import itemsetmining.transaction.Transaction;
+
+import org.junit.Test;
+
+public class ItemsetTest {
+
+	@Test
+	public void testSparseAndDenseLayouts() {
+
+		// Dense: few bit positions per item, sparse: large item IDs
+		final Itemset dense = new Itemset(1, 2, 3, 5);
+		final Itemset sparse = new Itemset(1, 5, 2_000_000);
+		assertTrue(dense.words != null && dense.sortedItems == null);
+		assertTrue(sparse.words == null && sparse.sortedItems != null);
+
+		assertTrue(dense.contains(new Itemset(1, 5)));
+		assertTrue(sparse.contains(new Itemset(1, 5)));
+		assertFalse(dense.contains(sparse));
+		assertEquals(2, dense.countIntersection(sparse));
+		assertEquals(5, dense.countUnion(sparse));
+		assertEquals(5, sparse.countUnion(dense));
+		assertTrue(sparse.intersects(dense));
+		assertFalse(sparse.intersects(new Itemset(2, 3)));
+		assertEquals("{1, 5, 2000000}", sparse.toString());
+
+	}
+
+	@Test
+	public void testEqualsAcrossLayouts() {
+
+		// Transaction switches layout as items are added
+		final Transaction transaction = new Transaction();
+		transaction.add(2_000_000);
+		transaction.add(7);
+		assertTrue(transaction.sortedItems != null);
+		transaction.remove(2_000_000);
+		for (int item = 1; item < 7; item++)
+			transaction.add(item);
+		assertTrue(transaction.words != null);
+
+		final Itemset set = new Itemset(7, 6, 5, 4, 3, 2, 1, 1);
+		assertEquals(7, set.size());
+		assertEquals(set, transaction);
+		assertEquals(set.hashCode(), transaction.hashCode());
+		assertEquals(set.fingerprint(), transaction.fingerprint());
+		assertEquals(new Itemset(1, 2, 3, 4, 5, 6, 7, 9), new Itemset(set,
+				new Itemset(9)));
+		assertEquals(new Itemset(1, 2, 3, 5, 6, 7), set.withoutItem(4));
+
+	}
+
+	@Test
+	public void testInterning() {
+
+		final ItemsetRegistry registry = ItemsetRegistry.getInstance();
+		registry.clear();
+
+		final Itemset set12 = registry.intern(new Itemset(1, 2));
+		final Itemset set3 = registry.intern(new Itemset(3));
+		assertEquals(0, set12.getId());
+		assertEquals(1, set3.getId());
+		assertSame(set12, registry.intern(new Itemset(2, 1)));
+		assertEquals(0, registry.getId(new Itemset(1, 2)));
+		assertEquals(-1, registry.getId(new Itemset(1, 3)));
+		assertSame(set3, registry.get(1));
+		assertEquals(2, registry.size());
+
+		registry.clear();
+		assertEquals(-1, registry.getId(set12));
+
+	}
+
+}
@@ -51,6 +51,33 @@ public class ItemsetTreeTest {
 
 	}
 
+	@Test
+	public void testItemsetTreeWithDictionary() throws IOException {
+
+		final File input = getTestFile("contextItemsetTree.txt"); // database
+		// Rank items by support
+		final ItemDictionary dictionary = new ItemDictionary(
+				ItemsetMining
+						.scanDatabaseToDetermineFrequencyOfSingleItems(input));
+		assertEquals(2, dictionary.decode(0));
+		assertEquals(new Itemset(1, 2, 4), dictionary.decode(dictionary
+				.encode(new Itemset(4, 2, 1))));
+
+		// Build the tree over the item IDs
+		final ItemsetTree itemsetTree = new ItemsetTree(dictionary);
+		itemsetTree.buildTree(input);
+
+		assertEquals(1, itemsetTree.getSupportOfItemset(dictionary
+				.encode(new Itemset(1, 2, 3))));
+		assertEquals(5, itemsetTree.getSupportOfItemset(dictionary
+				.encode(new Itemset(2))));
+		assertEquals(3, itemsetTree.getSupportOfItemset(dictionary
+				.encode(new Itemset(2, 4))));
+		assertEquals(2, itemsetTree.getSupportOfItemset(dictionary
+				.encode(new Itemset(1, 2))));
+
+	}
+
 	public File getTestFile(final String filename)
 			throws UnsupportedEncodingException {
 		final URL url = this.getClass().getClassLoader().getResource(filename);
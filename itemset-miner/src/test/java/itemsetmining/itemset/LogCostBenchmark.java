@@ -0,0 +1,95 @@
+package itemsetmining.itemset;
+
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compare the tabulated {@link ItemsetProbabilities} log costs with computing
+ * them from the probabilities, for the cost of a cache of itemsets.
+ * <p>
+ * Run with: mvn test-compile exec:java
+ * -Dexec.mainClass=itemsetmining.itemset.LogCostBenchmark
+ * -Dexec.classpathScope=test
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LogCostBenchmark {
+
+	/** Number of itemsets with non-zero probability */
+	private static final int NO_ITEMSETS = 10_000;
+
+	/** Number of itemsets in the cache */
+	@Param({ "10", "100", "1000" })
+	int cacheSize;
+
+	/** Cached itemsets (every other one in the covering) */
+	private Itemset[] cache;
+	private ItemsetProbabilities probs;
+
+	@Setup
+	public void setUp() {
+		final Random random = new Random(1);
+		final ItemsetRegistry registry = ItemsetRegistry.getInstance();
+		registry.clear();
+		final HashMap<Itemset, Double> itemsets = new HashMap<>();
+		final Itemset[] sets = new Itemset[NO_ITEMSETS];
+		for (int i = 0; i < NO_ITEMSETS; i++) {
+			sets[i] = registry.intern(new Itemset(i, i + 1));
+			itemsets.put(sets[i], random.nextDouble());
+		}
+		probs = new ItemsetProbabilities(itemsets);
+		cache = new Itemset[cacheSize];
+		for (int i = 0; i < cacheSize; i++)
+			cache[i] = sets[random.nextInt(NO_ITEMSETS)];
+	}
+
+	@Benchmark
+	public double costTable() {
+		double totalCost = 0;
+		for (int i = 0; i < cache.length; i++) {
+			if (i % 2 == 0)
+				totalCost += probs.getCoveringCost(cache[i]);
+			else
+				totalCost += probs.getNonCoveringCost(cache[i]);
+		}
+		return totalCost;
+	}
+
+	@Benchmark
+	public double costLog() {
+		double totalCost = 0;
+		for (int i = 0; i < cache.length; i++) {
+			if (i % 2 == 0)
+				totalCost += -Math.log(probs.get(cache[i]));
+			else
+				totalCost += -Math.log(1 - probs.get(cache[i]));
+		}
+		return totalCost;
+	}
+
+	public static void main(final String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(
+				LogCostBenchmark.class.getSimpleName()).build()).run();
+	}
+
+}
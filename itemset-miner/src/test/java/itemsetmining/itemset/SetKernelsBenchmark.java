@@ -0,0 +1,129 @@
+package itemsetmining.itemset;
+
+import itemsetmining.transaction.Transaction;
+
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compare the {@link SetKernels} based itemset operations with the previous
+ * clone-based BitSet versions at several densities.
+ * <p>
+ * Run with: mvn test-compile exec:java
+ * -Dexec.mainClass=itemsetmining.itemset.SetKernelsBenchmark
+ * -Dexec.classpathScope=test
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SetKernelsBenchmark {
+
+	/** Size of the item universe */
+	private static final int NO_ITEMS = 4096;
+
+	/** Fraction of the item universe contained in the transaction */
+	@Param({ "0.005", "0.05", "0.25", "0.75" })
+	double density;
+
+	/** Transaction and a candidate itemset drawn from it (plus one item) */
+	private Transaction transaction;
+	private Itemset candidate;
+	private BitSet transactionBits;
+	private BitSet candidateBits;
+
+	@Setup
+	public void setUp() {
+		final Random random = new Random(1);
+		transaction = new Transaction();
+		transactionBits = new BitSet();
+		for (int item = 0; item < NO_ITEMS; item++) {
+			if (random.nextDouble() < density) {
+				transaction.add(item);
+				transactionBits.set(item);
+			}
+		}
+		final int[] items = new int[Math.max(2, transaction.size() / 4)];
+		int i = 0;
+		for (final int item : transaction) {
+			if (i == items.length - 1)
+				break;
+			items[i++] = item;
+		}
+		items[i] = NO_ITEMS - 1;
+		candidate = new Itemset(items);
+		candidateBits = new BitSet();
+		for (final int item : candidate)
+			candidateBits.set(item);
+	}
+
+	@Benchmark
+	public boolean containsKernel() {
+		return transaction.contains(candidate);
+	}
+
+	@Benchmark
+	public boolean containsClone() {
+		final BitSet copy = (BitSet) candidateBits.clone();
+		copy.and(transactionBits);
+		return copy.equals(candidateBits);
+	}
+
+	@Benchmark
+	public int countUnionKernel() {
+		return transaction.countUnion(candidate);
+	}
+
+	@Benchmark
+	public int countUnionClone() {
+		final BitSet copy = (BitSet) candidateBits.clone();
+		copy.or(transactionBits);
+		return copy.cardinality();
+	}
+
+	@Benchmark
+	public int countIntersectionKernel() {
+		return transaction.countIntersection(candidate);
+	}
+
+	@Benchmark
+	public int countIntersectionClone() {
+		final BitSet copy = (BitSet) candidateBits.clone();
+		copy.and(transactionBits);
+		return copy.cardinality();
+	}
+
+	@Benchmark
+	public boolean intersectsKernel() {
+		return transaction.intersects(candidate);
+	}
+
+	@Benchmark
+	public boolean intersectsBitSet() {
+		return transactionBits.intersects(candidateBits);
+	}
+
+	public static void main(final String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(
+				SetKernelsBenchmark.class.getSimpleName()).build()).run();
+	}
+
+}
@@ -0,0 +1,138 @@
+package itemsetmining.main;
+
+import itemsetmining.itemset.Itemset;
+import itemsetmining.itemset.ItemsetProbabilities;
+import itemsetmining.itemset.ItemsetRegistry;
+import itemsetmining.main.InferenceAlgorithms.InferExact;
+import itemsetmining.main.InferenceAlgorithms.InferGreedy;
+import itemsetmining.main.InferenceAlgorithms.InferPrimalDual;
+import itemsetmining.main.InferenceAlgorithms.InferenceAlgorithm;
+import itemsetmining.transaction.ItemsetCache;
+import itemsetmining.transaction.Transaction;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Time inference of a chunk of transactions and caching their coverings (as
+ * in an E-step), and the cost of the cached coverings. Run with the gc
+ * profiler (-prof gc) to compare allocation rates.
+ * <p>
+ * Run with: mvn test-compile exec:java
+ * -Dexec.mainClass=itemsetmining.main.InferenceBenchmark
+ * -Dexec.classpathScope=test
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InferenceBenchmark {
+
+	/** Number of items */
+	private static final int NO_ITEMS = 200;
+
+	/** Number of transactions in the chunk */
+	private static final int NO_TRANSACTIONS = 256;
+
+	/** Number of items per transaction */
+	@Param({ "10", "100" })
+	int transactionSize;
+
+	/** Whether singletons are implicit */
+	@Param({ "false", "true" })
+	boolean implicitSingletons;
+
+	private final InferenceAlgorithm inferGreedy = new InferGreedy();
+	private final InferenceAlgorithm inferPrimalDual = new InferPrimalDual();
+	private final InferenceAlgorithm inferExact = new InferExact();
+	private List<Transaction> transactions;
+	private final long[][] coverings = new long[NO_TRANSACTIONS][];
+	private ItemsetProbabilities probs;
+
+	@Setup
+	public void setUp() {
+		final Random random = new Random(1);
+		final ItemsetRegistry registry = ItemsetRegistry.getInstance();
+		registry.clear();
+		final HashMap<Itemset, Double> itemsets = new HashMap<>();
+		for (int item = 0; item < NO_ITEMS; item++)
+			itemsets.put(registry.intern(new Itemset(item)),
+					random.nextDouble());
+		for (int i = 0; i < 10 * NO_ITEMS; i++)
+			itemsets.put(
+					registry.intern(new Itemset(random.nextInt(NO_ITEMS),
+							random.nextInt(NO_ITEMS))), random.nextDouble());
+		probs = new ItemsetProbabilities(itemsets);
+
+		transactions = new ArrayList<>();
+		for (int i = 0; i < NO_TRANSACTIONS; i++) {
+			final Transaction transaction = new Transaction();
+			while (transaction.size() < transactionSize)
+				transaction.add(random.nextInt(NO_ITEMS));
+			transaction.initializeCachedItemsets(itemsets.keySet(),
+					ItemsetCache.Layout.ARRAY, implicitSingletons);
+			if (implicitSingletons) {
+				for (final Itemset set : itemsets.keySet()) {
+					if (set.size() > 1 && transaction.contains(set))
+						transaction.addItemsetCache(set, probs);
+				}
+			}
+			transactions.add(transaction);
+		}
+	}
+
+	@Benchmark
+	public void inferGreedy() {
+		infer(inferGreedy);
+	}
+
+	@Benchmark
+	public void inferPrimalDual() {
+		infer(inferPrimalDual);
+	}
+
+	@Benchmark
+	public void inferExact() {
+		infer(inferExact);
+	}
+
+	@Benchmark
+	public double cachedCost() {
+		double cost = 0;
+		for (final Transaction transaction : transactions)
+			cost += transaction.getCachedCost(probs);
+		return cost;
+	}
+
+	private void infer(final InferenceAlgorithm algorithm) {
+		algorithm.inferChunk(transactions, probs, null, coverings, 0);
+		for (int k = 0; k < NO_TRANSACTIONS; k++)
+			transactions.get(k).setCachedCovering(coverings[k]);
+	}
+
+	public static void main(final String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(
+				InferenceBenchmark.class.getSimpleName()).build()).run();
+	}
+
+}
@@ -1,20 +1,35 @@
 package itemsetmining.main;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import itemsetmining.itemset.Itemset;
+import itemsetmining.itemset.ItemsetProbabilities;
+import itemsetmining.itemset.ItemsetRegistry;
+import itemsetmining.main.InferenceAlgorithms.InferExact;
 import itemsetmining.main.InferenceAlgorithms.InferGreedy;
 import itemsetmining.main.InferenceAlgorithms.InferPrimalDual;
 import itemsetmining.main.InferenceAlgorithms.InferenceAlgorithm;
+import itemsetmining.transaction.ItemsetCache;
 import itemsetmining.transaction.Transaction;
+import itemsetmining.util.PartialLogFixer;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.logging.Handler;
+import java.util.stream.IntStream;
 
+import org.apache.commons.io.FileUtils;
 import org.junit.Test;
 
-import com.google.common.collect.HashMultiset;
 import com.google.common.collect.Sets;
 
 public class ItemsetMiningTest {
@@ -22,38 +37,43 @@ public class ItemsetMiningTest {
 	@Test
 	public void testDoInference() {
 
-		final Itemset s1 = new Itemset(1);
-		final Itemset s2 = new Itemset(2);
-		final Itemset s3 = new Itemset(3);
-		final Itemset s4 = new Itemset(4);
+		final ItemsetRegistry registry = ItemsetRegistry.getInstance();
+		registry.clear();
+
+		final Itemset s1 = registry.intern(new Itemset(1));
+		final Itemset s2 = registry.intern(new Itemset(2));
+		final Itemset s3 = registry.intern(new Itemset(3));
+		final Itemset s4 = registry.intern(new Itemset(4));
 		final double p1 = 0.2;
 		final double p2 = 0.2;
 		final double p3 = 0.4;
 		final double p4 = 0.4;
 
-		final Itemset s12 = new Itemset(1, 2);
-		final Itemset s23 = new Itemset(2, 3);
-		final Itemset s24 = new Itemset(2, 4);
-		final Itemset s34 = new Itemset(3, 4);
+		final Itemset s12 = registry.intern(new Itemset(1, 2));
+		final Itemset s23 = registry.intern(new Itemset(2, 3));
+		final Itemset s24 = registry.intern(new Itemset(2, 4));
+		final Itemset s34 = registry.intern(new Itemset(3, 4));
 		final double p12 = 0.4;
 		final double p23 = 0.3;
 		final double p24 = 0.2;
 		final double p34 = 0.4;
 
+		final HashMap<Itemset, Double> itemsets = new HashMap<>();
+		itemsets.put(s1, p1);
+		itemsets.put(s2, p2);
+		itemsets.put(s3, p3);
+		itemsets.put(s4, p4);
+		itemsets.put(s12, p12);
+		itemsets.put(s23, p23);
+		itemsets.put(s24, p24);
+		itemsets.put(s34, p34);
+		final ItemsetProbabilities probs = new ItemsetProbabilities(itemsets);
+
 		// Transaction #1
 		final Transaction transaction1234 = new Transaction(1, 2, 3, 4);
-		transaction1234.initializeCachedItemsets(HashMultiset.create(), 0);
-		transaction1234.addItemsetCache(s1, p1);
-		transaction1234.addItemsetCache(s2, p2);
-		transaction1234.addItemsetCache(s3, p3);
-		transaction1234.addItemsetCache(s4, p4);
-		transaction1234.addItemsetCache(s12, p12);
-		transaction1234.addItemsetCache(s23, p23);
-		transaction1234.addItemsetCache(s24, p24);
-		transaction1234.addItemsetCache(s34, p34);
-
-		final HashMap<Itemset, Double> itemsets = new HashMap<>(
-				transaction1234.getCachedItemsets());
+		transaction1234.initializeCachedItemsets(itemsets.keySet(),
+				ItemsetCache.Layout.MAP);
+		assertEquals(itemsets, transaction1234.getCachedItemsets(probs));
 
 		// Expected solution #1
 		double expectedCost1234 = -Math.log(p12) - Math.log(p34);
@@ -65,13 +85,8 @@ public class ItemsetMiningTest {
 
 		// Transaction #2
 		final Transaction transaction234 = new Transaction(2, 3, 4);
-		transaction234.initializeCachedItemsets(HashMultiset.create(), 0);
-		transaction234.addItemsetCache(s2, p2);
-		transaction234.addItemsetCache(s3, p3);
-		transaction234.addItemsetCache(s4, p4);
-		transaction234.addItemsetCache(s23, p23);
-		transaction234.addItemsetCache(s24, p24);
-		transaction234.addItemsetCache(s34, p34);
+		transaction234.initializeCachedItemsets(itemsets.keySet(),
+				ItemsetCache.Layout.ARRAY);
 
 		// Expected solution #2
 		double expectedCost234 = -1 * Math.log(p23) - Math.log(p34);
@@ -84,32 +99,241 @@ public class ItemsetMiningTest {
 
 		// Test greedy
 		final InferenceAlgorithm inferGreedy = new InferGreedy();
-		final HashSet<Itemset> actual1234 = inferGreedy.infer(transaction1234);
+		final HashSet<Itemset> actual1234 = infer(inferGreedy,
+				transaction1234, probs);
 		assertEquals(expected1234, actual1234);
 		transaction1234.setCachedCovering(actual1234);
-		assertEquals(expectedCost1234, transaction1234.getCachedCost(), 1e-15);
+		assertEquals(expectedCost1234, transaction1234.getCachedCost(probs),
+				1e-15);
 
-		final HashSet<Itemset> actual234 = inferGreedy.infer(transaction234);
+		final HashSet<Itemset> actual234 = infer(inferGreedy, transaction234,
+				probs);
 		assertEquals(expected234, actual234);
 		transaction234.setCachedCovering(actual234);
-		assertEquals(expectedCost234, transaction234.getCachedCost(), 1e-15);
+		assertEquals(expectedCost234, transaction234.getCachedCost(probs),
+				1e-15);
 
 		// Test primal-dual (only gives rough approximation)
 		final InferenceAlgorithm inferPrimalDual = new InferPrimalDual();
-		final HashSet<Itemset> actual1234p = inferPrimalDual
-				.infer(transaction1234);
+		final HashSet<Itemset> actual1234p = infer(inferPrimalDual,
+				transaction1234, probs);
 		final Set<Integer> actualItems1234 = new HashSet<>();
 		for (final Itemset set : actual1234p)
 			actualItems1234.addAll(set);
 		assertTrue(actualItems1234.containsAll(transaction1234));
 
-		final HashSet<Itemset> actual234p = inferPrimalDual
-				.infer(transaction234);
+		final HashSet<Itemset> actual234p = infer(inferPrimalDual,
+				transaction234, probs);
 		final Set<Integer> actualItems234 = new HashSet<>();
 		for (final Itemset set : actual234p)
 			actualItems234.addAll(set);
 		assertTrue(actualItems234.containsAll(transaction234));
 
+		// Primal-dual is reproducible for a given seed
+		assertEquals(actual1234p,
+				infer(new InferPrimalDual(), transaction1234, probs));
+
+	}
+
+	@Test
+	public void testGreedy() {
+
+		final ItemsetRegistry registry = ItemsetRegistry.getInstance();
+		registry.clear();
+
+		// Random itemsets with few distinct probabilities (so costs tie)
+		final Random random = new Random(1);
+		final double[] someProbs = { 0.05, 0.1, 0.2, 0.4 };
+		final HashMap<Itemset, Double> itemsets = new HashMap<>();
+		for (int item = 0; item < 80; item++)
+			itemsets.put(registry.intern(new Itemset(item)),
+					someProbs[random.nextInt(someProbs.length)]);
+		for (int i = 0; i < 400; i++)
+			itemsets.put(
+					registry.intern(new Itemset(random.nextInt(80), random
+							.nextInt(80), random.nextInt(80))),
+					someProbs[random.nextInt(someProbs.length)]);
+		final ItemsetProbabilities probs = new ItemsetProbabilities(itemsets);
+
+		// Bitmask (short transactions) and lazy (long transactions) greedy
+		// should match a full scan of each greedy round
+		final InferenceAlgorithm inferGreedy = new InferGreedy();
+		for (int i = 0; i < 200; i++) {
+			final Transaction transaction = new Transaction();
+			final double density = i % 2 == 0 ? 0.3 : 0.95;
+			for (int item = 0; item < 80; item++) {
+				if (random.nextDouble() < density)
+					transaction.add(item);
+			}
+			transaction.initializeCachedItemsets(itemsets.keySet(),
+					ItemsetCache.Layout.ARRAY);
+			final ItemsetCache cache = transaction.getItemsetCache(probs);
+			final List<Itemset> cached = new ArrayList<>();
+			for (int j = 0; j < cache.size(); j++)
+				cached.add(cache.getItemset(j));
+			assertEquals(getGreedyCovering(transaction, cached, probs),
+					infer(inferGreedy, transaction, probs));
+		}
+	}
+
+	/** Infer the covering of the transaction as a set of itemsets */
+	private static HashSet<Itemset> infer(final InferenceAlgorithm algorithm,
+			final Transaction transaction, final ItemsetProbabilities probs) {
+		return transaction.getCoveringItemsets(
+				algorithm.infer(transaction, probs), probs, null);
+	}
+
+	/** Greedy covering that scans all itemsets in the given order each round */
+	private static HashSet<Itemset> getGreedyCovering(
+			final Transaction transaction, final List<Itemset> itemsets,
+			final ItemsetProbabilities probs) {
+		final HashSet<Itemset> covering = new HashSet<>();
+		final Set<Integer> coveredItems = new HashSet<>();
+		while (coveredItems.size() != transaction.size()) {
+			double minCostPerItem = Double.POSITIVE_INFINITY;
+			Itemset bestSet = null;
+			for (final Itemset set : itemsets) {
+				int notCovered = 0;
+				for (final int item : set) {
+					if (!coveredItems.contains(item))
+						notCovered++;
+				}
+				final double costPerItem = -Math.log(probs.get(set))
+						/ notCovered;
+				if (costPerItem < minCostPerItem) {
+					minCostPerItem = costPerItem;
+					bestSet = set;
+				}
+			}
+			if (bestSet == null)
+				break;
+			covering.add(bestSet);
+			coveredItems.addAll(bestSet);
+		}
+		return covering;
+	}
+
+	@Test
+	public void testExact() {
+
+		final ItemsetRegistry registry = ItemsetRegistry.getInstance();
+		registry.clear();
+
+		// Random singletons and pairs/triples over few items
+		final Random random = new Random(1);
+		final HashMap<Itemset, Double> itemsets = new HashMap<>();
+		for (int item = 0; item < 10; item++)
+			itemsets.put(registry.intern(new Itemset(item)),
+					random.nextDouble());
+		for (int i = 0; i < 20; i++)
+			itemsets.put(
+					registry.intern(new Itemset(random.nextInt(10), random
+							.nextInt(10), random.nextInt(10))),
+					random.nextDouble());
+		final ItemsetProbabilities probs = new ItemsetProbabilities(itemsets);
+
+		// Exact should match the least cost covering of all subsets of the
+		// cached itemsets and never cost more than greedy
+		final InferenceAlgorithm inferExact = new InferExact();
+		final InferenceAlgorithm inferGreedy = new InferGreedy();
+		for (int i = 0; i < 100; i++) {
+			final Transaction transaction = new Transaction();
+			for (int item = 0; item < 10; item++) {
+				if (random.nextDouble() < 0.5)
+					transaction.add(item);
+			}
+			transaction.initializeCachedItemsets(itemsets.keySet(),
+					ItemsetCache.Layout.ARRAY);
+			final ItemsetCache cache = transaction.getItemsetCache(probs);
+			final List<Itemset> cached = new ArrayList<>();
+			for (int j = 0; j < cache.size(); j++)
+				cached.add(cache.getItemset(j));
+
+			final double exactCost = getCost(transaction,
+					infer(inferExact, transaction, probs), probs);
+			assertEquals(getLeastCost(transaction, cached, probs), exactCost,
+					1e-10);
+			assertTrue(exactCost <= getCost(transaction,
+					infer(inferGreedy, transaction, probs), probs) + 1e-10);
+		}
+	}
+
+	/** Least cost of the subsets of the itemsets covering the transaction */
+	private static double getLeastCost(final Transaction transaction,
+			final List<Itemset> itemsets, final ItemsetProbabilities probs) {
+		double leastCost = Double.POSITIVE_INFINITY;
+		for (int subset = 0; subset < 1 << itemsets.size(); subset++) {
+			final HashSet<Itemset> covering = new HashSet<>();
+			final Set<Integer> coveredItems = new HashSet<>();
+			for (int j = 0; j < itemsets.size(); j++) {
+				if ((subset & 1 << j) != 0) {
+					covering.add(itemsets.get(j));
+					coveredItems.addAll(itemsets.get(j));
+				}
+			}
+			if (coveredItems.size() == transaction.size())
+				leastCost = Math.min(leastCost,
+						getCost(transaction, covering, probs));
+		}
+		return leastCost;
+	}
+
+	/** Cost of the given covering of the transaction */
+	private static double getCost(final Transaction transaction,
+			final Set<Itemset> covering, final ItemsetProbabilities probs) {
+		transaction.setCachedCovering(covering);
+		return transaction.getCachedCost(probs);
+	}
+
+	@Test
+	public void testStratifiedSample() {
+
+		// 80 transactions of size 1 and 20 of size 4
+		final List<Transaction> transactions = new ArrayList<>();
+		for (int i = 0; i < 80; i++)
+			transactions.add(new Transaction(1));
+		for (int i = 0; i < 20; i++)
+			transactions.add(new Transaction(1, 2, 3, 4));
+		final int[] tids = IntStream.range(0, 100).toArray();
+
+		final int[] sample = CandidateScreen.sample(tids, transactions, 10,
+				new Random(1));
+		assertEquals(10, sample.length);
+		assertEquals(10, Arrays.stream(sample).distinct().count());
+		assertEquals(2, Arrays.stream(sample).filter(tid -> tid >= 80).count());
+		assertArrayEquals(sample, CandidateScreen.sample(tids, transactions,
+				10, new Random(1)));
+
+		final Map<Integer, Long> stratumSizes = CandidateScreen
+				.getStratumSizes(tids, transactions);
+		assertEquals(80, (long) stratumSizes.get(1));
+		assertEquals(20, (long) stratumSizes.get(3));
+	}
+
+	@Test
+	public void testPartialLogItemsets() throws IOException {
+
+		// Items whose support order differs from their order
+		final File dataset = File.createTempFile("partial", ".dat");
+		final File logFile = File.createTempFile("partial", ".log");
+		dataset.deleteOnExit();
+		logFile.deleteOnExit();
+		final List<String> lines = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			lines.add("30 50");
+			lines.add("10 30 50");
+			lines.add("20 40");
+		}
+		lines.add("10 20");
+		FileUtils.writeLines(dataset, lines);
+
+		final Map<Itemset, Double> itemsets = ItemsetMining.mineItemsets(
+				dataset, new InferGreedy(), 100, 100, logFile);
+		for (final Handler handler : ItemsetMiningCore.logger.getHandlers())
+			handler.close();
+
+		// The last logged itemsets are the mined ones (in the original items)
+		assertEquals(itemsets, PartialLogFixer.readLastEMStepItemsets(logFile));
 	}
 
 	// @Test
@@ -1,9 +1,23 @@
 package itemsetmining.transaction;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import itemsetmining.itemset.Itemset;
+import itemsetmining.itemset.ItemsetProbabilities;
+import itemsetmining.itemset.ItemsetRegistry;
+import itemsetmining.main.InferenceAlgorithms.InferExact;
+import itemsetmining.main.InferenceAlgorithms.InferGreedy;
+import itemsetmining.main.InferenceAlgorithms.InferPrimalDual;
+import itemsetmining.main.InferenceAlgorithms.InferenceAlgorithm;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
 
 import org.junit.Test;
 
@@ -25,4 +39,333 @@ public class TransactionTest {
 
 	}
 
+	@Test
+	public void testCacheLayouts() {
+
+		final ItemsetRegistry registry = ItemsetRegistry.getInstance();
+		registry.clear();
+		final Itemset s1 = registry.intern(new Itemset(1));
+		final Itemset s2 = registry.intern(new Itemset(2));
+		final Itemset s12 = registry.intern(new Itemset(1, 2));
+		final HashMap<Itemset, Double> itemsets = new HashMap<>();
+		itemsets.put(s1, 0.5);
+		itemsets.put(s2, 0.25);
+		itemsets.put(s12, 0.1);
+		final ItemsetProbabilities probs = new ItemsetProbabilities(itemsets);
+
+		for (final ItemsetCache.Layout layout : ItemsetCache.Layout.values()) {
+			final Transaction transaction = new Transaction(1, 2, 3);
+			transaction.initializeCachedItemsets(Arrays.asList(s1, s2), layout);
+			transaction.addItemsetCache(s12, probs);
+			transaction.setCachedCovering(Arrays.asList(s12));
+			assertEquals(3, transaction.getItemsetCache(probs).size());
+			assertEquals(-Math.log(0.1) - Math.log(0.5) - Math.log(0.75),
+					transaction.getCachedCost(probs), 1e-12);
+
+			// Zero probability itemsets are only dropped for a new version
+			final ItemsetProbabilities newProbs = probs.next(new double[] {
+					0.5, 0, 0.2 });
+			assertEquals(-Math.log(0.2) - Math.log(0.5),
+					transaction.getCachedCost(newProbs), 1e-12);
+			assertEquals(3, transaction.getItemsetCache(probs).size());
+			assertEquals(2, transaction.getItemsetCache(newProbs).size());
+			transaction.removeItemsetCache(s1);
+			assertEquals(s12, transaction.getItemsetCache(newProbs)
+					.getItemset(0));
+
+			// Costs follow changes to the cache and covering
+			assertEquals(-Math.log(0.2), transaction.getCachedCost(newProbs),
+					1e-12);
+			transaction.setCachedCovering(new ArrayList<>());
+			assertEquals(-Math.log(0.8), transaction.getCachedCost(newProbs),
+					1e-12);
+		}
+		registry.clear();
+
+	}
+
+	@Test
+	public void testCacheLayoutCoverings() {
+
+		final ItemsetRegistry registry = ItemsetRegistry.getInstance();
+		registry.clear();
+		final Random random = new Random(1);
+		final HashMap<Itemset, Double> itemsets = new HashMap<>();
+		for (int item = 0; item < 20; item++)
+			itemsets.put(registry.intern(new Itemset(item)),
+					random.nextDouble());
+		for (int i = 0; i < 40; i++)
+			itemsets.put(registry.intern(new Itemset(random.nextInt(20),
+					random.nextInt(20))), random.nextDouble());
+		final ItemsetProbabilities probs = new ItemsetProbabilities(itemsets);
+		final Itemset candidate = registry.intern(new Itemset(0, 1, 2));
+		final ItemsetProbabilities candidateProbs = probs.with(candidate, 0.5);
+
+		// Drop a fifth of the itemsets in the next version
+		final double[] newProbs = new double[registry.size()];
+		for (final Itemset set : itemsets.keySet())
+			newProbs[set.getId()] = random.nextInt(5) == 0 ? 0 : probs
+					.get(set);
+		final ItemsetProbabilities prunedProbs = probs.next(newProbs);
+
+		final List<InferenceAlgorithm> algorithms = Arrays.asList(
+				new InferGreedy(), new InferPrimalDual(), new InferExact());
+		for (int i = 0; i < 50; i++) {
+			final Transaction items = new Transaction(0, 1, 2);
+			for (int item = 3; item < 20; item++) {
+				if (random.nextDouble() < 0.4)
+					items.add(item);
+			}
+			for (final boolean implicitSingletons : new boolean[] { false,
+					true }) {
+				for (final InferenceAlgorithm algorithm : algorithms) {
+
+					// Caches with the same itemsets (in the same order)
+					final Transaction map = new Transaction(items.getItems());
+					map.initializeCachedItemsets(itemsets.keySet(),
+							ItemsetCache.Layout.MAP, implicitSingletons);
+					final Transaction array = new Transaction(items.getItems());
+					array.initializeCachedItemsets(itemsets.keySet(),
+							ItemsetCache.Layout.ARRAY, implicitSingletons);
+
+					// Inferred coverings and costs are the same
+					final long[] covering = algorithm.infer(map, probs);
+					assertArrayEquals(covering, algorithm.infer(array, probs));
+					map.setCachedCovering(covering);
+					array.setCachedCovering(covering);
+					assertEquals(map.getCachedCost(probs),
+							array.getCachedCost(probs), 1e-12);
+
+					// Also with the candidate committed
+					final TransactionOverlay mapOverlay = map
+							.overlay(candidate);
+					mapOverlay.setCovering(algorithm.infer(map,
+							candidateProbs, candidate));
+					final TransactionOverlay arrayOverlay = array
+							.overlay(candidate);
+					arrayOverlay.setCovering(algorithm.infer(array,
+							candidateProbs, candidate));
+					assertArrayEquals(mapOverlay.getCovering(),
+							arrayOverlay.getCovering());
+					mapOverlay.commit(candidateProbs);
+					arrayOverlay.commit(candidateProbs);
+					assertEquals(map.getCachedCost(candidateProbs),
+							array.getCachedCost(candidateProbs), 1e-12);
+
+					// And once itemsets have been dropped from the cache
+					assertEquals(map.getItemsetCache(prunedProbs).size(),
+							array.getItemsetCache(prunedProbs).size());
+					assertArrayEquals(map.getCachedCovering(),
+							array.getCachedCovering());
+					assertEquals(map.getCoveringItemsets(
+							map.getCachedCovering(), prunedProbs, null),
+							array.getCoveringItemsets(
+									array.getCachedCovering(), prunedProbs,
+									null));
+					assertEquals(map.getCachedCost(prunedProbs),
+							array.getCachedCost(prunedProbs), 1e-12);
+				}
+			}
+		}
+		registry.clear();
+
+	}
+
+	@Test
+	public void testImplicitSingletons() {
+
+		final ItemsetRegistry registry = ItemsetRegistry.getInstance();
+		registry.clear();
+		final HashMap<Itemset, Double> itemsets = new HashMap<>();
+		itemsets.put(registry.intern(new Itemset(0)), 0.5);
+		itemsets.put(registry.intern(new Itemset(1)), 0.25);
+		itemsets.put(registry.intern(new Itemset(2)), 0.2);
+		itemsets.put(registry.intern(new Itemset(3)), 0.);
+		final Itemset s12 = registry.intern(new Itemset(1, 2));
+		itemsets.put(s12, 0.4);
+		final ItemsetProbabilities probs = new ItemsetProbabilities(itemsets);
+
+		final Transaction explicit = new Transaction(0, 1, 2, 3);
+		explicit.initializeCachedItemsets(itemsets.keySet(),
+				ItemsetCache.Layout.ARRAY, false);
+		final Transaction implicit = new Transaction(0, 1, 2, 3);
+		implicit.initializeCachedItemsets(itemsets.keySet(),
+				ItemsetCache.Layout.ARRAY, true);
+		implicit.addItemsetCache(s12, probs);
+		assertEquals(1, implicit.getItemsetCache(probs).size());
+		final Itemset[] singletons = implicit.getImplicitSingletons(probs);
+		assertEquals(4, singletons.length);
+		assertTrue(singletons[3].isEmpty()); // zero probability
+		assertEquals(explicit.getCachedItemsets(probs),
+				implicit.getCachedItemsets(probs));
+
+		final InferGreedy inferGreedy = new InferGreedy();
+		final long[] explicitCovering = inferGreedy.infer(explicit, probs);
+		final long[] implicitCovering = inferGreedy.infer(implicit, probs);
+		assertEquals(
+				explicit.getCoveringItemsets(explicitCovering, probs, null),
+				implicit.getCoveringItemsets(implicitCovering, probs, null));
+		explicit.setCachedCovering(explicitCovering);
+		implicit.setCachedCovering(implicitCovering);
+		assertEquals(explicit.getCachedCost(probs),
+				implicit.getCachedCost(probs), 1e-12);
+		registry.clear();
+
+	}
+
+	@Test
+	public void testOverlay() {
+
+		final ItemsetRegistry registry = ItemsetRegistry.getInstance();
+		registry.clear();
+		final HashMap<Itemset, Double> itemsets = new HashMap<>();
+		final Itemset s0 = registry.intern(new Itemset(0));
+		final Itemset s1 = registry.intern(new Itemset(1));
+		itemsets.put(s0, 0.5);
+		itemsets.put(s1, 0.5);
+		final Itemset s01 = registry.intern(new Itemset(0, 1));
+		final ItemsetProbabilities probs = new ItemsetProbabilities(itemsets)
+				.with(s01, 1.0);
+
+		final Transaction transaction = new Transaction(0, 1);
+		transaction.initializeCachedItemsets(itemsets.keySet(),
+				ItemsetCache.Layout.ARRAY);
+		transaction.setCachedCovering(Arrays.asList(s0, s1));
+
+		// Inference sees the candidate, the cache is left untouched
+		final InferGreedy inferGreedy = new InferGreedy();
+		final TransactionOverlay rolledBack = transaction.overlay(s01);
+		rolledBack.setCovering(inferGreedy.infer(transaction, probs, s01));
+		assertEquals(new HashSet<>(Arrays.asList(s01)),
+				transaction.getCoveringItemsets(rolledBack.getCovering(),
+						probs, s01));
+		assertEquals(2, transaction.getItemsetCache(probs).size());
+		rolledBack.rollback();
+		assertTrue(rolledBack.isRolledBack());
+		assertEquals(2, transaction.getItemsetCache(probs).size());
+		assertEquals(new HashSet<>(Arrays.asList(s0, s1)),
+				transaction.getCoveringItemsets(
+						transaction.getCachedCovering(), probs, null));
+
+		// Committing adds the candidate and its covering
+		final TransactionOverlay committed = transaction.overlay(s01);
+		committed.setCovering(inferGreedy.infer(transaction, probs, s01));
+		assertEquals(new HashSet<>(Arrays.asList(s0, s1)),
+				transaction.getCoveringItemsets(committed.commit(probs), probs,
+						null));
+		assertTrue(committed.isCommitted());
+		assertEquals(3, transaction.getItemsetCache(probs).size());
+		assertEquals(new HashSet<>(Arrays.asList(s01)),
+				transaction.getCoveringItemsets(
+						transaction.getCachedCovering(), probs, null));
+		try {
+			committed.rollback();
+			fail();
+		} catch (final IllegalStateException e) {
+		}
+		registry.clear();
+
+	}
+
+	@Test
+	public void testTidsetIndex() {
+
+		// Item 0 is in every transaction (dense), the others are sparse
+		final Random random = new Random(1);
+		final List<Transaction> transactions = new ArrayList<>();
+		for (int tid = 0; tid < 1000; tid++) {
+			final Transaction transaction = new Transaction(0);
+			for (int item = 1; item < 200; item++) {
+				if (random.nextInt(item) == 0)
+					transaction.add(item);
+			}
+			transactions.add(transaction);
+		}
+		final TidsetIndex index = new TidsetIndex(transactions);
+		assertEquals(1000, index.getSupport(0));
+		assertEquals(0, index.getSupport(500));
+
+		for (final Itemset set : Arrays.asList(new Itemset(0), new Itemset(
+				0, 1, 2), new Itemset(2, 3), new Itemset(0, 199), new Itemset(
+				5, 500))) {
+			final List<Integer> expected = new ArrayList<>();
+			for (int tid = 0; tid < transactions.size(); tid++) {
+				if (transactions.get(tid).contains(set))
+					expected.add(tid);
+			}
+			final List<Integer> actual = new ArrayList<>();
+			for (final int tid : index.getSupportingTransactions(set))
+				actual.add(tid);
+			assertEquals(expected, actual);
+		}
+
+	}
+
+	@Test
+	public void testProjectionClasses() {
+
+		final ItemsetRegistry registry = ItemsetRegistry.getInstance();
+		registry.clear();
+		final HashMap<Itemset, Double> itemsets = new HashMap<>();
+		for (int item = 0; item < 5; item++)
+			itemsets.put(registry.intern(new Itemset(item)), 0.2 + item / 10.);
+		final Itemset s01 = registry.intern(new Itemset(0, 1));
+		itemsets.put(s01, 0.4);
+		final ItemsetProbabilities probs = new ItemsetProbabilities(itemsets);
+
+		// Transactions 0 and 1 only differ in items outside {0, 1}
+		final List<Transaction> transactions = Arrays.asList(new Transaction(
+				0, 1, 2), new Transaction(0, 1, 3, 4), new Transaction(0, 2));
+		for (final Transaction transaction : transactions) {
+			transaction.initializeCachedItemsets(itemsets.keySet(),
+					ItemsetCache.Layout.ARRAY);
+			transaction.addItemsetCache(s01, probs);
+		}
+		final ProjectionClasses classes = new ProjectionClasses(transactions);
+		classes.addItems(s01, new TidsetIndex(transactions));
+		assertEquals(classes.getClass(0), classes.getClass(1));
+		assertTrue(classes.getClass(0) != classes.getClass(2));
+		assertEquals(0, classes.getRepresentative(classes.getClass(1)));
+
+		final InferGreedy inferGreedy = new InferGreedy();
+		final Transaction transaction = transactions.get(1);
+		final long[] classCovering = inferGreedy.infer(transactions.get(0),
+				probs);
+		assertEquals(transaction.getCoveringItemsets(
+				inferGreedy.infer(transaction, probs), probs, null),
+				transaction.getCoveringItemsets(classes.shareCovering(
+						transactions.get(0), classCovering, transaction, probs,
+						null), probs, null));
+		registry.clear();
+
+	}
+
+	@Test
+	public void testWeightedTransactions() {
+
+		assertEquals(1, TransactionFormat.getCount("1 2 3"));
+		assertEquals(5, TransactionFormat.getCount("1 2 3 #COUNT: 5"));
+		assertEquals(Arrays.asList("1", "2", "3"),
+				Arrays.asList(TransactionFormat.getItems("1 2 3 #COUNT: 5")));
+		assertArrayEquals(new int[] { 1, 2, 3 },
+				TransactionFormat.getDistinctItems("3 1 2 1 #COUNT: 5"));
+
+		final Transaction annotated = new Transaction(1, 2);
+		annotated.setWeight(3);
+		final List<Transaction> transactions = TransactionList
+				.deduplicate(Arrays.asList(new Transaction(1, 2),
+						new Transaction(2), annotated, new Transaction(2, 1)));
+		assertEquals(2, transactions.size());
+		assertEquals(new Transaction(1, 2), transactions.get(0));
+		assertEquals(5, transactions.get(0).getWeight());
+		assertEquals(1, transactions.get(1).getWeight());
+		assertEquals(6, new TransactionList(transactions).size());
+
+		final TidsetIndex index = new TidsetIndex(transactions);
+		assertEquals(5, index.getSupport(1));
+		assertEquals(6, index.getSupport(2));
+		assertEquals(5, index.getSupport(new Itemset(1, 2)));
+
+	}
+
 }